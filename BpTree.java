@@ -17,9 +17,15 @@ public class BpTree <K extends Comparable <K>, V>
        extends AbstractMap <K, V>
        implements Serializable, Cloneable, SortedMap <K, V>
 {
-    /** The maximum fanout for a B+Tree node.
+    /** The default maximum fanout for a B+Tree node: large enough that a
+     *  million keys need only 3-4 levels, while a node's keys still fit in a
+     *  few cache lines' worth of references.
      */
-    private static final int ORDER = 5;
+    public static final int DEFAULT_ORDER = 128;
+
+    /** The maximum fanout for a B+Tree node (a node holds up to order - 1 keys).
+     */
+    private final int order;
 
     /** The class for type K.
      */
@@ -38,17 +44,20 @@ public class BpTree <K extends Comparable <K>, V>
         int       nKeys;
         K []      key;
         Object [] ref;
+        Node      next;                                    // the next leaf to the right (leaves only)
+        int       total;                                   // the number of keys in the subtree (internal
+                                                           // nodes of counted trees only)
         @SuppressWarnings("unchecked")
         Node (boolean _isLeaf)
         {
             isLeaf = _isLeaf;
             nKeys  = 0;
-            key    = (K []) Array.newInstance (classK, ORDER - 1);
+            key    = (K []) Array.newInstance (classK, order - 1);
             if (isLeaf) {
-                //ref = (V []) Array.newInstance (classV, ORDER);
-                ref = new Object [ORDER];
+                //ref = (V []) Array.newInstance (classV, order);
+                ref = new Object [order];
             } else {
-                ref = (Node []) Array.newInstance (Node.class, ORDER);
+                ref = (Node []) Array.newInstance (Node.class, order);
             } // if
         } // constructor
     } // Node inner class
@@ -92,16 +101,70 @@ public class BpTree <K extends Comparable <K>, V>
      */
     private int count = 0;
 
+    /** The key separating a node that just split from its new right sibling
+     *  (set by split for the parent to insert).
+     */
+    private K splitKey;
+
+    /** Whether the last insert added a new key (rather than replacing a value).
+     */
+    private boolean added;
+
+    /** Whether the last delete found the key, and the value it removed.
+     */
+    private boolean found;
+    private V       removed;
+
+    /** The number of keys in the B+Tree.
+     */
+    private int keyCount = 0;
+
+    /** Whether internal nodes keep the number of keys in their subtrees, so that
+     *  rank, select and nKeysInInterval take O(log n) (order statistic mode).
+     */
+    private final boolean counted;
+
     /***************************************************************************
-     * Construct an empty B+Tree map.
+     * Construct an empty B+Tree map with the default order.
      * @param _classK  the class for keys (K)
      * @param _classV  the class for values (V)
      */
     public BpTree (Class <K> _classK, Class <V> _classV)
     {
-        classK = _classK;
-        classV = _classV;
-        root   = new Node (true);
+        this (_classK, _classV, DEFAULT_ORDER);
+    } // BpTree
+
+    /***************************************************************************
+     * Construct an empty B+Tree map whose nodes have the given maximum fanout
+     * (e.g., 64-256 in memory, or as many keys as fit in a page on disk).
+     * @param _classK  the class for keys (K)
+     * @param _classV  the class for values (V)
+     * @param _order   the maximum fanout of a node (at least 3)
+     */
+    public BpTree (Class <K> _classK, Class <V> _classV, int _order)
+    {
+        this (_classK, _classV, _order, false);
+    } // BpTree
+
+    /***************************************************************************
+     * Construct an empty B+Tree map, optionally in order statistic mode, where
+     * each internal node also keeps the number of keys in its subtree.  This
+     * makes rank, select and nKeysInInterval take O(log n) time rather than
+     * time proportional to the number of keys counted, at the cost of updating
+     * the counts along the path on each put and remove.
+     * @param _classK   the class for keys (K)
+     * @param _classV   the class for values (V)
+     * @param _order    the maximum fanout of a node (at least 3)
+     * @param _counted  whether to keep subtree counts
+     */
+    public BpTree (Class <K> _classK, Class <V> _classV, int _order, boolean _counted)
+    {
+        if (_order < 3) throw new IllegalArgumentException ("BpTree: order must be at least 3");
+        classK  = _classK;
+        classV  = _classV;
+        order   = _order;
+        counted = _counted;
+        root    = new Node (true);
     } // BpTree
 
     /***************************************************************************
@@ -114,62 +177,154 @@ public class BpTree <K extends Comparable <K>, V>
     } // comparator
 
     /***************************************************************************
-     * Return a set containing all the entries as pairs of keys and values.
+     * Return a set containing all the entries as pairs of keys and values, in
+     * key order.  The set is a view: iterating over it scans the leaves with a
+     * cursor.
      * @return  the set view of the map
      * @author Minh Pham
      */
     public Set <Map.Entry <K, V>> entrySet ()
     {
-        Set <Map.Entry <K, V>> enSet = new HashSet <Map.Entry <K, V>> ();
-        
-        Node n=root;
-        if(n==null) return enSet;
-        Queue<Node> myQueue = new LinkedList<Node>();
-        myQueue.add(n);
-        while(!myQueue.isEmpty()){
-               Node temp = myQueue.poll();
-               if(temp.isLeaf){
-        		for(int i=0; i<temp.nKeys; i++){
-        			enSet.add(new Entry(temp.key[i], (V) temp.ref[i]));
-        		}
-        	}
-        	else{
-        		for(int i=0; i< temp.nKeys+1; i++){
-        			myQueue.add((Node)temp.ref[i]);
-        		}
-        	}
-        }
-            
-        return enSet;
+        return entries (null, false, null, false);
     } // entrySet
 
+    /***************************************************************************
+     * Return a view of the entries whose keys lie in the given interval, in key
+     * order.
+     * @param lo    lower limit of interval, can be null
+     * @param loIn  whether lo is "in" interval
+     * @param hi    upper limit, can be null
+     * @param hiIn  whether hi is "in" interval
+     * @return  the set view of the entries in the interval
+     */
+    Set <Map.Entry <K, V>> entries (K lo, boolean loIn, K hi, boolean hiIn)
+    {
+        return new AbstractSet <Map.Entry <K, V>> () {
+            public Iterator <Map.Entry <K, V>> iterator () { return cursor (lo, loIn, hi, hiIn); }
+            public int size ()
+            {
+                return (lo == null && hi == null) ? BpTree.this.size () : nKeysInInterval (lo, loIn, hi, hiIn);
+            } // size
+        };
+    } // entries
 
     /***************************************************************************
-     * Return a TreeMap containing all the entries as pairs of keys and values.
-     * @return  the the TreeMap
-     * @author Minh Pham
+     * This inner class defines cursors that scan the entries of the B+Tree in
+     * key order by following the links between leaves.  A cursor starts at the
+     * first key; seek moves it to the first key at (or after) a given key in
+     * O(log n), after which each next costs O(1).  A cursor may be given an
+     * upper limit, beyond which it reports no more entries.
      */
-    private TreeMap<K,V> TreeMap ()
-    {
-        TreeMap<K, V> map = new TreeMap<K, V>();
-        Node n=root;
-        Queue<Node> myQueue = new LinkedList<Node>();
-        myQueue.add(n);
-        while(!myQueue.isEmpty()){
-               Node temp = myQueue.poll();
-               if(temp.isLeaf){
-        		for(int i=0; i<temp.nKeys; i++){
-        			map.put(temp.key[i], (V) temp.ref[i]);
-        		}
-        	}
-        	else{
-        		for(int i=0; i< temp.nKeys+1; i++){
-        			myQueue.add((Node)temp.ref[i]);
-        		}
-        	}
-        }            
-        return map;
-    } // TreeMap
+    public class Cursor
+           implements Iterator <Map.Entry <K, V>>
+    {
+        private Node          leaf;                        // the current leaf (null => done)
+        private int           pos;                         // the position of the next entry in leaf
+        private final K       hi;                          // upper limit (null => none)
+        private final boolean hiIn;                        // whether hi is "in" the scan
+
+        Cursor (K _hi, boolean _hiIn)
+        {
+            hi   = _hi;
+            hiIn = _hiIn;
+            Node n = root;
+            while ( ! n.isLeaf) n = (Node) n.ref [0];
+            leaf = n;
+        } // constructor
+
+        /***********************************************************************
+         * Position the cursor at the first key >= key.
+         * @param key  the key to seek
+         * @return  this cursor
+         */
+        public Cursor seek (K key)
+        {
+            return seek (key, true);
+        } // seek
+
+        /***********************************************************************
+         * Position the cursor at the first key >= key (> key if not inclusive).
+         * @param key        the key to seek
+         * @param inclusive  whether an entry with the key itself is included
+         * @return  this cursor
+         */
+        public Cursor seek (K key, boolean inclusive)
+        {
+            Node n = root;
+            count++;
+            while ( ! n.isLeaf) {
+                n = (Node) n.ref [child (search (key, n))];
+                count++;
+            } // while
+            int i = search (key, n);
+            leaf  = n;
+            pos   = (i < 0) ? -i - 1 : inclusive ? i : i + 1;
+            return this;
+        } // seek
+
+        /***********************************************************************
+         * Determine whether there is another entry within the limit.
+         * @return  whether next will return an entry
+         */
+        public boolean hasNext ()
+        {
+            while (leaf != null && pos >= leaf.nKeys) {
+                leaf = leaf.next;
+                pos  = 0;
+            } // while
+            if (leaf == null) return false;
+            if (hi != null) {
+                int c = leaf.key [pos].compareTo (hi);
+                if (c > 0 || (c == 0 && ! hiIn)) { leaf = null; return false; }
+            } // if
+            return true;
+        } // hasNext
+
+        /***********************************************************************
+         * Return the next entry and advance the cursor.
+         * @return  the next entry in key order
+         */
+        @SuppressWarnings("unchecked")
+        public Map.Entry <K, V> next ()
+        {
+            if ( ! hasNext ()) throw new NoSuchElementException ();
+            Entry e = new Entry (leaf.key [pos], (V) leaf.ref [pos]);
+            pos++;
+            return e;
+        } // next
+
+        /***********************************************************************
+         * Return the key of the next entry without advancing the cursor.
+         * @return  the next key in key order (null if there is none)
+         */
+        public K peekKey ()
+        {
+            return hasNext () ? leaf.key [pos] : null;
+        } // peekKey
+    } // Cursor inner class
+
+    /***************************************************************************
+     * Return a cursor positioned at the first key of the B+Tree.
+     * @return  a new cursor
+     */
+    public Cursor cursor ()
+    {
+        return new Cursor (null, false);
+    } // cursor
+
+    /***************************************************************************
+     * Return a cursor over the keys in the given interval.
+     * @param lo    lower limit of interval, can be null
+     * @param loIn  whether lo is "in" interval
+     * @param hi    upper limit, can be null
+     * @param hiIn  whether hi is "in" interval
+     * @return  a new cursor positioned at the first key in the interval
+     */
+    public Cursor cursor (K lo, boolean loIn, K hi, boolean hiIn)
+    {
+        Cursor c = new Cursor (hi, hiIn);
+        return (lo == null) ? c : c.seek (lo, loIn);
+    } // cursor
 
     /***************************************************************************
      * Given the key, look up the value in the B+Tree map.
@@ -182,6 +337,19 @@ public class BpTree <K extends Comparable <K>, V>
         return find ((K) key, root);
     } // get
 
+    /***************************************************************************
+     * Determine whether the key is in the B+Tree map.
+     * @param key  the key to check
+     * @return  whether the map contains the key
+     */
+    @SuppressWarnings("unchecked")
+    public boolean containsKey (Object key)
+    {
+        Node n = root;
+        while ( ! n.isLeaf) n = (Node) n.ref [child (search ((K) key, n))];
+        return search ((K) key, n) >= 0;
+    } // containsKey
+
     /***************************************************************************
      * Put the key-value pair in the B+Tree map.
      * @param key    the key to insert
@@ -190,10 +358,133 @@ public class BpTree <K extends Comparable <K>, V>
      */
     public V put (K key, V value)
     {
-        insert (key, value, root, null);
+        added = false;
+        Node sibling = insert (key, value, root);
+        if (added) keyCount++;
+        if (sibling != null) {                               // the root split, so the tree grows up
+            Node newRoot = new Node (false);
+            newRoot.key [0] = splitKey;
+            newRoot.ref [0] = root;
+            newRoot.ref [1] = sibling;
+            newRoot.nKeys   = 1;
+            newRoot.total   = total (root) + total (sibling);
+            root = newRoot;
+        } // if
         return null;
     } // put
 
+    /***************************************************************************
+     * Load the (empty) B+Tree map bottom-up from entries sorted by key: leaves
+     * are packed left to right to the given fill factor and linked, then each
+     * level of internal nodes is built over the one below it, in one pass per
+     * level.  This is much faster than putting the entries one at a time, and
+     * the nodes end up fuller (put leaves split nodes about half full), making
+     * a smaller and often shallower tree.  The last node of a level is evened
+     * out with its left neighbor so no node is less than half full.
+     * @param sorted      the entries, in strictly increasing key order
+     * @param fillFactor  the fraction of each node to fill (0.5 to 1.0)
+     * @return  this B+Tree map
+     */
+    @SuppressWarnings("unchecked")
+    public BpTree <K, V> bulkLoad (Iterator <? extends Map.Entry <K, V>> sorted, double fillFactor)
+    {
+        if (root.nKeys > 0 || ! root.isLeaf) throw new IllegalStateException ("BpTree:bulkLoad: the tree is not empty");
+        fillFactor = Math.max (0.5, Math.min (1.0, fillFactor));
+
+        // build the leaves, keeping each one's first key for the level above
+        int        maxKeys = order - 1;
+        int        cap     = Math.max (order / 2, (int) Math.round (fillFactor * maxKeys));
+        List <Node> level  = new ArrayList <Node> ();
+        List <K>    low    = new ArrayList <K> ();
+        Node        leaf   = root;
+        K           prev   = null;
+        level.add (leaf);
+        while (sorted.hasNext ()) {
+            Map.Entry <K, V> e = sorted.next ();
+            K key = e.getKey ();
+            if (prev != null && prev.compareTo (key) >= 0) {
+                throw new IllegalArgumentException ("BpTree:bulkLoad: keys not in increasing order at " + key);
+            } // if
+            if (leaf.nKeys == cap) {
+                Node n = new Node (true);
+                leaf.next = n;
+                leaf      = n;
+                level.add (leaf);
+            } // if
+            if (leaf.nKeys == 0) low.add (key);
+            leaf.key [leaf.nKeys]   = key;
+            leaf.ref [leaf.nKeys++] = e.getValue ();
+            keyCount++;
+            prev = key;
+        } // while
+        if (level.size () > 1) balanceLast (level, low, order / 2);
+
+        // build the internal levels until a single root remains
+        int fanout = Math.max ((order + 1) / 2, (int) Math.round (fillFactor * order));
+        while (level.size () > 1) {
+            List <Node> upper    = new ArrayList <Node> ();
+            List <K>    upperLow = new ArrayList <K> ();
+            for (int i = 0; i < level.size (); ) {
+                int m = Math.min (fanout, level.size () - i);
+                int rest = level.size () - i - m;
+                if (rest > 0 && rest < (order + 1) / 2) {                // even out the last two nodes
+                    m = (m + rest <= order) ? m + rest : (m + rest + 1) / 2;
+                } // if
+                Node n = new Node (false);
+                for (int j = 0; j < m; j++) {
+                    n.ref [j] = level.get (i + j);
+                    if (j > 0) n.key [j - 1] = low.get (i + j);
+                } // for
+                n.nKeys = m - 1;
+                if (counted) recount (n);
+                upper.add (n);
+                upperLow.add (low.get (i));
+                i += m;
+            } // for
+            level = upper;
+            low   = upperLow;
+        } // while
+        root = level.get (0);
+        return this;
+    } // bulkLoad
+
+    /***************************************************************************
+     * Even out the last two leaves of a bulk load when the last one is less
+     * than half full: merge them if they fit in one leaf, else split their keys
+     * evenly between them.
+     * @param leaves  the leaves, in key order
+     * @param low     the first key of each leaf
+     * @param min     the minimum number of keys in a leaf
+     */
+    private void balanceLast (List <Node> leaves, List <K> low, int min)
+    {
+        int  k    = leaves.size () - 1;
+        Node a    = leaves.get (k - 1), b = leaves.get (k);
+        if (b.nKeys >= min) return;
+        int  tot  = a.nKeys + b.nKeys;
+        int  keep = (tot <= order - 1) ? tot : (tot + 1) / 2;
+        K [] keys = Arrays.copyOf (a.key, tot);
+        Object [] refs = Arrays.copyOf (a.ref, tot);
+        System.arraycopy (b.key, 0, keys, a.nKeys, b.nKeys);
+        System.arraycopy (b.ref, 0, refs, a.nKeys, b.nKeys);
+
+        Arrays.fill (a.key, null); Arrays.fill (a.ref, null);
+        Arrays.fill (b.key, null); Arrays.fill (b.ref, null);
+        System.arraycopy (keys, 0, a.key, 0, keep);
+        System.arraycopy (refs, 0, a.ref, 0, keep);
+        a.nKeys = keep;
+        if (keep == tot) {                                 // merged: drop the last leaf
+            a.next = null;
+            leaves.remove (k);
+            low.remove (k);
+        } else {
+            System.arraycopy (keys, keep, b.key, 0, tot - keep);
+            System.arraycopy (refs, keep, b.ref, 0, tot - keep);
+            b.nKeys = tot - keep;
+            low.set (k, b.key [0]);
+        } // if
+    } // balanceLast
+
     /***************************************************************************
      * Return the first (smallest) key in the B+Tree map.
      * @return  the first key in the B+Tree map.
@@ -263,33 +554,14 @@ public class BpTree <K extends Comparable <K>, V>
     } // subMap
 
     /***************************************************************************
-     * Return the size (number of keys) in the B+Tree.
+     * Return the size (number of keys) in the B+Tree, which is kept up to date
+     * by put (and remove).
      * @return  the size of the B+Tree
      * @author Minh Pham
      */
     public int size ()
     {
-         // level order tree traversal-> store nodes in a queue
-        // add node.nKeyso to sum if it is a leaf
-        int sum = 0;
-        Node n =root;
-        if(root==null) return 0;
-        Queue<Node> myQueue = new LinkedList<Node>();   
-        myQueue.add(n);
-        while(!myQueue.isEmpty()){
-               Node temp = myQueue.poll();
-               if(temp.isLeaf){
-        		sum+=temp.nKeys;
-        		//System.out.println("count");
-        	}
-        	else{
-        		for(int i=0; i< temp.nKeys+1; i++){
-        			myQueue.add((Node)temp.ref[i]);
-        		}
-        	}
-        }
-
-        return  sum;
+        return keyCount;
     } // size
 
     /***************************************************************************
@@ -324,178 +596,375 @@ public class BpTree <K extends Comparable <K>, V>
     private V find (K key, Node n)
     {
         count++;
-        for (int i = 0; i < n.nKeys; i++) {
-            K k_i = n.key [i];
-            if (key.compareTo (k_i) <= 0) {
-                if (n.isLeaf) {
-                    return (key.equals (k_i)) ? (V) n.ref [i] : null;
-                } else {
-                    return (key.equals (k_i)) ? find (key, (Node) n.ref [i+1]): find (key, (Node) n.ref [i]);          // the line has been modified to compatible to my code
-                } // if
-            } // if
-        } // for
-        return (n.isLeaf) ? null : find (key, (Node) n.ref [n.nKeys]);
+        int i = search (key, n);
+        if (n.isLeaf) return (i >= 0) ? (V) n.ref [i] : null;
+        return find (key, (Node) n.ref [child (i)]);
     } // find
 
     /***************************************************************************
-     * Recursive helper function for inserting a key in B+trees.
+     * Binary search node n for the key.
+     * @param key  the key to search for
+     * @param n    the node to search
+     * @return  the key's position if it is in n, else -(insertion point) - 1
+     */
+    private int search (K key, Node n)
+    {
+        int lo = 0, hi = n.nKeys - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c   = n.key [mid].compareTo (key);
+            if (c < 0)      lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else            return mid;
+        } // while
+        return -(lo + 1);
+    } // search
+
+    /***************************************************************************
+     * Return the position of the child to descend to in an internal node, given
+     * the result of searching the node: keys equal to key i are found in the
+     * subtree to the right of key i.
+     * @param i  the result of search
+     * @return  the position of the child
+     */
+    private static int child (int i)
+    {
+        return (i >= 0) ? i + 1 : -i - 1;
+    } // child
+
+    /***************************************************************************
+     * Recursive helper function for inserting a key in B+trees.  If node n has
+     * to split, its new right sibling is returned and the key separating the
+     * two is left in splitKey for the parent to insert.
      * @param key  the key to insert
-     * @param ref  the value/node to insert
+     * @param ref  the value to insert
      * @param n    the current node
-     * @param p    the parent node
-     * @author Minh Pham: do not use recursive
-     */
-    private void insert (K key, V ref, Node n, Node p)
-    {
-       int pos=0;
-           Stack<Node> myStack = new Stack();					// use stack to store the path from root to the leaf node being inserted key and ref
-    	while(!n.isLeaf){
-    		pos=0;
-    		while(pos<n.nKeys && n.key[pos].compareTo(key)<=0) pos++;
-    		p = n;
-    		myStack.add(p);
-    		n = (Node) n.ref[pos];    		
-    	}// after while loop: n points to a leaf
-    	
-    	pos=0;
-	while(pos<n.nKeys && n.key[pos].compareTo(key)<0) pos++;
-    	// get position to insert
-
-	if(pos<n.nKeys && n.key[pos].compareTo(key)==0){
-              System.out.println ("BpTree:insert: attempt to insert duplicate key = " + key);
-              n.ref[pos]=ref;
-       return;
-	}
-		
-	// check number of entries
-    	if(n.nKeys==ORDER-1){									// n has ORDER-1 entries -> insertion causes node n splitting
-    		Node newNode = split(key, ref, n);
-			
-    		if(p==null);										// case: n points to root -> create new root
-    		else if(p.nKeys<ORDER-1){							// no need to split parent node, just insert the entry to parent node
-    			pos=0;
-    			while(pos<p.nKeys && p.key[pos].compareTo(key)<=0) pos++;	
-				wedge(newNode.key[0], (V)newNode, p, pos);
-			}
-    		else{												// parent node need splitting
-    			do{												// while loop to split nodes recursively from leaf back to root if needed
-    				p=myStack.pop();
-    				Node aNode = split(newNode.key[0],(V)newNode, p);
-    				newNode=aNode;
-    			}
-    			while(!myStack.isEmpty() && myStack.peek().nKeys==ORDER-1);
-
-    			if(!myStack.isEmpty()){							// node p is not full, just insert key and ref to this node							
-    				p = myStack.pop();
-    	   			pos=0;										
-        			while(pos<p.nKeys && p.key[pos].compareTo(key)<=0) pos++;
-    				wedge(newNode.key[0], (V)newNode,p,pos);
-    			}
-    		}
-    	}   	
-    	// n has fewer entries than ORDER-1
-    	else wedge(key, ref, n, pos);
+     * @return  the new right sibling of n if n split, else null
+     */
+    private Node insert (K key, V ref, Node n)
+    {
+        int i = search (key, n);
+        if (n.isLeaf) {
+            if (i >= 0) {
+                out.println ("BpTree:insert: attempt to insert duplicate key = " + key);
+                n.ref [i] = ref;
+                return null;
+            } // if
+            int pos = -i - 1;
+            added   = true;
+            if (n.nKeys < order - 1) { wedge (key, ref, n, pos); return null; }
+            return split (key, ref, n, pos);
+        } // if
+
+        int  pos     = child (i);
+        Node sibling = insert (key, ref, (Node) n.ref [pos]);
+        if (counted && added) n.total++;
+        if (sibling == null) return null;
+        if (n.nKeys < order - 1) { wedge (splitKey, sibling, n, pos); return null; }
+        sibling = split (splitKey, sibling, n, pos);
+        if (counted) { recount (n); recount (sibling); }
+        return sibling;
     } // insert
 
     /***************************************************************************
-     * Wedge the key-ref pair into node n.
+     * Remove the key (and its value) from the B+Tree map.  A node left less
+     * than half full borrows an entry from a sibling that can spare one, or
+     * else is merged with a sibling (unlinking a merged leaf from the chain of
+     * leaves).  A root left with a single child is replaced by it, so the tree
+     * shrinks from the top.
+     * @param key  the key to remove
+     * @return  the value that was associated with the key (null if none)
+     */
+    @SuppressWarnings("unchecked")
+    public V remove (Object key)
+    {
+        removed = null;
+        found   = false;
+        delete ((K) key, root);
+        if (found) keyCount--;
+        if ( ! root.isLeaf && root.nKeys == 0) root = (Node) root.ref [0];   // the tree shrinks
+        return removed;
+    } // remove
+
+    /***************************************************************************
+     * Recursive helper function for removing a key from B+trees.
+     * @param key  the key to remove
+     * @param n    the current node
+     * @return  whether node n is now less than half full
+     */
+    @SuppressWarnings("unchecked")
+    private boolean delete (K key, Node n)
+    {
+        int i = search (key, n);
+        if (n.isLeaf) {
+            if (i < 0) return false;
+            removed = (V) n.ref [i];
+            found   = true;
+            System.arraycopy (n.key, i + 1, n.key, i, n.nKeys - i - 1);
+            System.arraycopy (n.ref, i + 1, n.ref, i, n.nKeys - i - 1);
+            n.nKeys--;
+            n.key [n.nKeys] = null;
+            n.ref [n.nKeys] = null;
+            return n.nKeys < order / 2;
+        } // if
+
+        int c = child (i);
+        if (delete (key, (Node) n.ref [c])) rebalance (n, c);
+        if (counted && found) n.total--;
+        return n.nKeys < (order - 1) / 2;
+    } // delete
+
+    /***************************************************************************
+     * Restore the child at position c of node p, which is less than half full,
+     * by borrowing from its left or right sibling, or if neither can spare an
+     * entry, by merging it with one of them.
+     * @param p  the parent node
+     * @param c  the position of the underfull child
+     */
+    private void rebalance (Node p, int c)
+    {
+        Node ch    = (Node) p.ref [c];
+        Node left  = (c > 0) ? (Node) p.ref [c - 1] : null;
+        Node right = (c < p.nKeys) ? (Node) p.ref [c + 1] : null;
+        int  min   = ch.isLeaf ? order / 2 : (order - 1) / 2;
+
+        if (left != null && left.nKeys > min) {
+            borrowLeft (p, c, left, ch);
+        } else if (right != null && right.nKeys > min) {
+            borrowRight (p, c, ch, right);
+        } else if (left != null) {
+            merge (p, c - 1, left, ch);
+        } else {
+            merge (p, c, ch, right);
+        } // if
+    } // rebalance
+
+    /***************************************************************************
+     * Move the last entry of the left sibling into child ch (at position c of
+     * parent p), updating the key separating them.
+     */
+    private void borrowLeft (Node p, int c, Node left, Node ch)
+    {
+        int r = ch.isLeaf ? 0 : 1;
+        System.arraycopy (ch.key, 0, ch.key, 1, ch.nKeys);
+        System.arraycopy (ch.ref, 0, ch.ref, 1, ch.nKeys + r);
+        if (ch.isLeaf) {
+            ch.key [0]     = left.key [left.nKeys - 1];
+            ch.ref [0]     = left.ref [left.nKeys - 1];
+            p.key [c - 1]  = ch.key [0];
+        } else {
+            ch.key [0]     = p.key [c - 1];
+            ch.ref [0]     = left.ref [left.nKeys];
+            p.key [c - 1]  = left.key [left.nKeys - 1];
+        } // if
+        ch.nKeys++;
+        left.nKeys--;
+        left.key [left.nKeys]     = null;
+        left.ref [left.nKeys + r] = null;
+        if (counted && ! ch.isLeaf) { recount (ch); recount (left); }
+    } // borrowLeft
+
+    /***************************************************************************
+     * Move the first entry of the right sibling into child ch (at position c of
+     * parent p), updating the key separating them.
+     */
+    private void borrowRight (Node p, int c, Node ch, Node right)
+    {
+        int r = ch.isLeaf ? 0 : 1;
+        if (ch.isLeaf) {
+            ch.key [ch.nKeys] = right.key [0];
+            ch.ref [ch.nKeys] = right.ref [0];
+            p.key [c]         = right.key [1];
+        } else {
+            ch.key [ch.nKeys]     = p.key [c];
+            ch.ref [ch.nKeys + 1] = right.ref [0];
+            p.key [c]             = right.key [0];
+        } // if
+        ch.nKeys++;
+        System.arraycopy (right.key, 1, right.key, 0, right.nKeys - 1);
+        System.arraycopy (right.ref, 1, right.ref, 0, right.nKeys - 1 + r);
+        right.nKeys--;
+        right.key [right.nKeys]     = null;
+        right.ref [right.nKeys + r] = null;
+        if (counted && ! ch.isLeaf) { recount (ch); recount (right); }
+    } // borrowRight
+
+    /***************************************************************************
+     * Merge node b into its left sibling a, where a and b are the children of
+     * parent p at positions i and i + 1, and remove key i (and b) from p.  For
+     * internal nodes the key separating them comes down between their keys; a
+     * merged leaf is unlinked from the chain of leaves.
+     */
+    private void merge (Node p, int i, Node a, Node b)
+    {
+        if (a.isLeaf) {
+            System.arraycopy (b.key, 0, a.key, a.nKeys, b.nKeys);
+            System.arraycopy (b.ref, 0, a.ref, a.nKeys, b.nKeys);
+            a.nKeys += b.nKeys;
+            a.next   = b.next;
+        } else {
+            a.key [a.nKeys] = p.key [i];
+            System.arraycopy (b.key, 0, a.key, a.nKeys + 1, b.nKeys);
+            System.arraycopy (b.ref, 0, a.ref, a.nKeys + 1, b.nKeys + 1);
+            a.nKeys += b.nKeys + 1;
+            if (counted) a.total += b.total;
+        } // if
+        System.arraycopy (p.key, i + 1, p.key, i, p.nKeys - i - 1);
+        System.arraycopy (p.ref, i + 2, p.ref, i + 1, p.nKeys - i - 1);
+        p.nKeys--;
+        p.key [p.nKeys]     = null;
+        p.ref [p.nKeys + 1] = null;
+    } // merge
+
+    /***************************************************************************
+     * Return the number of keys in the subtree rooted at node n (only valid for
+     * internal nodes when the tree is counted).
+     * @param n  the root of the subtree
+     * @return  the number of keys in the subtree
+     */
+    private int total (Node n)
+    {
+        return n.isLeaf ? n.nKeys : n.total;
+    } // total
+
+    /***************************************************************************
+     * Recompute the number of keys in the subtree of internal node n from the
+     * counts of its children.
+     * @param n  the internal node
+     */
+    private void recount (Node n)
+    {
+        int sum = 0;
+        for (int j = 0; j <= n.nKeys; j++) sum += total ((Node) n.ref [j]);
+        n.total = sum;
+    } // recount
+
+    /***************************************************************************
+     * Return the rank of the key: the number of keys in the B+Tree less than it
+     * (or less than or equal to it if inclusive).  In order statistic mode this
+     * descends the tree once, adding up the counts of the subtrees to the left;
+     * otherwise the keys are counted with a cursor.
+     * @param key        the key to rank
+     * @param inclusive  whether to count the key itself
+     * @return  the number of keys before (or up to) the key
+     */
+    public int rank (K key, boolean inclusive)
+    {
+        if ( ! counted) return nKeysInInterval (null, false, key, inclusive);
+        int  r = 0;
+        Node n = root;
+        while ( ! n.isLeaf) {
+            count++;
+            int c = child (search (key, n));
+            for (int j = 0; j < c; j++) r += total ((Node) n.ref [j]);
+            n = (Node) n.ref [c];
+        } // while
+        count++;
+        int i = search (key, n);
+        return r + ((i >= 0) ? (inclusive ? i + 1 : i) : -i - 1);
+    } // rank
+
+    /***************************************************************************
+     * Return the number of keys in the B+Tree less than the key.
+     * @param key  the key to rank
+     * @return  the rank of the key
+     */
+    public int rank (K key)
+    {
+        return rank (key, false);
+    } // rank
+
+    /***************************************************************************
+     * Return the key of the given rank, i.e., the (i+1)-th smallest key.  In
+     * order statistic mode this descends the tree once; otherwise it skips along
+     * the chain of leaves.
+     * @param i  the rank (0 <= i < size)
+     * @return  the key with i keys before it
+     */
+    public K select (int i)
+    {
+        if (i < 0 || i >= keyCount) throw new IndexOutOfBoundsException ("BpTree:select: rank " + i);
+        Node n = root;
+        if (counted) {
+            while ( ! n.isLeaf) {
+                count++;
+                int j = 0;
+                for (int t; i >= (t = total ((Node) n.ref [j])); j++) i -= t;
+                n = (Node) n.ref [j];
+            } // while
+        } else {
+            while ( ! n.isLeaf) n = (Node) n.ref [0];
+            for ( ; i >= n.nKeys; n = n.next) i -= n.nKeys;
+        } // if
+        return n.key [i];
+    } // select
+
+    /***************************************************************************
+     * Wedge the key-ref pair into node n (which has room for it).  In a leaf the
+     * ref is the key's value; in an internal node it is the child to the right
+     * of the key.
      * @param key  the key to insert
      * @param ref  the value/node to insert
      * @param n    the current node
      * @param i    the insertion position within node n
-     * @author Minh Pham: modify wedge() to compatible with my codes
      */
-    private void wedge (K key, V ref, Node n, int i)
+    private void wedge (K key, Object ref, Node n, int i)
     {
-        if(n.isLeaf){
-            for (int j = n.nKeys; j > i; j--) {
-                n.key [j] = n.key [j - 1];
-                n.ref [j] = n.ref [j - 1];
-            } // for
-            n.ref [i] = ref;
-        }
-        else{
-            for (int j = n.nKeys; j > i; j--) {
-                n.key [j] = n.key [j - 1];
-                n.ref [j+1] = n.ref [j];
-            } // for
-            n.ref [i+1] = ref;
-        }
-        n.key [i] = key;
+        int r = n.isLeaf ? 0 : 1;                          // offset of the ref belonging to key i
+        System.arraycopy (n.key, i, n.key, i + 1, n.nKeys - i);
+        System.arraycopy (n.ref, i + r, n.ref, i + 1 + r, n.nKeys - i);
+        n.key [i]     = key;
+        n.ref [i + r] = ref;
         n.nKeys++;
-        
-        if(ref.getClass().toString().equals("class BpTree$Node") && !((Node)ref).isLeaf){
-               for(int j=0; j<((Node)ref).nKeys-1; j++){
-               	((Node)ref).key[j]=((Node)ref).key[j+1];
-        		((Node)ref).ref[j]=((Node)ref).ref[j+1];
-        	}
-        	((Node)ref).ref[((Node)ref).nKeys-1]=((Node)ref).ref[((Node)ref).nKeys];
-        	((Node)ref).nKeys--;
-        }
     } // wedge
 
     /***************************************************************************
-     * Split node n and return the newly created node.
+     * Split full node n while inserting the key-ref pair at position i, and
+     * return the newly created right sibling.  A leaf keeps its first half and
+     * splitKey is set to the sibling's first key; an internal node moves its
+     * middle key up as splitKey.
      * @param key  the key to insert
      * @param ref  the value/node to insert
      * @param n    the current node
-     * @author Minh Pham
+     * @param i    the insertion position within node n
+     * @return  the new right sibling
      */
-    private Node split (K key, V ref, Node n)
+    @SuppressWarnings("unchecked")
+    private Node split (K key, Object ref, Node n, int i)
     {
-        Node newNode = new Node(n.isLeaf);
-        // find the position to insert
-        int pos=0;
-        while(pos<ORDER-1 && key.compareTo(n.key[pos])>0){
-               pos++;
-        }
-        int mid = ORDER/2;       	// mid of node n
-
-        // key is on the left within node n
-        if(pos<mid){
-        	if(ORDER%2==0) mid--;
-        	
-        	// copy to newnode
-            for(int i=0; i< ORDER/2; i++){
-            	newNode.key[i] = n.key[mid+i];
-            	newNode.ref[i] = n.ref[mid+i];
-            }
-            newNode.ref[ORDER/2]=n.ref[ORDER-1];
-        	n.nKeys=mid;
-            newNode.nKeys=ORDER/2;
-            
-            wedge(key, ref, n, pos);				// insert key and ref to node n
-        }
-        else{
-        	if(ORDER%2==1) mid++;
-        	n.nKeys=mid;
-        	pos-=mid;
-
-        	// copy to new node
-            for(int i=0; i< (ORDER-2)/2; i++){
-            	newNode.key[i] = n.key[mid+i];
-            	newNode.ref[i] = n.ref[mid+i];
-            }
-            newNode.ref[(ORDER-2)/2]=n.ref[ORDER-1];
-        	newNode.nKeys=(ORDER-2)/2;
-        	
-        	// insert key and ref to the new node
-        	wedge(key, ref, newNode, pos);				
-         }
-
-        // splitting the root causes creating newRoot
-        if(n==root){
-        	Node newRoot = new Node(false);
-        	newRoot.ref[0]=n;
-        	wedge(newNode.key[0], (V) newNode, newRoot, 0);
-        	root =newRoot;
-        }
-        
+        int       r    = n.isLeaf ? 0 : 1;
+        Object [] keys = new Object [order];
+        Object [] refs = new Object [order + r];
+        for (int j = 0, k = 0; j < order; j++) keys [j] = (j == i) ? key : n.key [k++];
+        for (int j = 0, k = 0; j < order + r; j++) refs [j] = (j == i + r) ? ref : n.ref [k++];
+
+        Node newNode = new Node (n.isLeaf);
+        int  mid     = n.isLeaf ? (order + 1) / 2 : order / 2;
+        int  from    = n.isLeaf ? mid : mid + 1;          // first key moving to the sibling
+
+        Arrays.fill (n.key, null);
+        Arrays.fill (n.ref, null);
+        for (int j = 0; j < mid; j++) n.key [j] = (K) keys [j];
+        for (int j = 0; j < mid + r; j++) n.ref [j] = refs [j];
+        n.nKeys = mid;
+
+        for (int j = from; j < order; j++) newNode.key [j - from] = (K) keys [j];
+        for (int j = from; j < order + r; j++) newNode.ref [j - from] = refs [j];
+        newNode.nKeys = order - from;
+
+        if (n.isLeaf) {                                    // link the new leaf into the chain
+            newNode.next = n.next;
+            n.next       = newNode;
+        } // if
+
+        splitKey = (K) keys [mid];
         return newNode;
     } // split
 
     /***************************************************************************
-     * Return the number of keys in an interval
+     * Return the number of keys in an interval: the difference of two ranks in
+     * order statistic mode (O(log n)), else counted by scanning the leaves from
+     * the first key in the interval (O(log n + k)).
      * @param lo    lower limit of interval, can be null
      * @param loIn  whether lo is "in" interval
      * @param hi    upper limit, can be null
@@ -503,39 +972,27 @@ public class BpTree <K extends Comparable <K>, V>
      * @return  number of keys within the interval defined by params
      * @author Zachary Freeland
      */
-
-    public int nKeysInInterval(K lo, Boolean loIn, K hi, Boolean hiIn) {	    
-
+    public int nKeysInInterval(K lo, Boolean loIn, K hi, Boolean hiIn) {
+	if (counted) {
+	    // rank of the upper end minus the rank of the lower end
+	    int upper = (hi == null) ? keyCount : rank(hi, hiIn);
+	    int lower = (lo == null) ? 0 : rank(lo, !loIn);
+	    return Math.max(0, upper - lower);
+	}
+	Cursor c = cursor(lo, loIn, hi, hiIn);
 	int sum = 0;
-	Node n =root;
-	if(root==null) return 0;
-	Queue<Node> q = new LinkedList<Node>();   
-	q.add(n);
-	while(!q.isEmpty()){
-	    Node temp = q.poll();
-	    int i = 0;
-	    int j = 0;
-	    int k = temp.nKeys;
-	    if(temp.isLeaf){
-		if(lo != null)
-		    while( i < temp.nKeys && !inInterval(temp.key[i], lo, loIn, hi, hiIn) ) { i++; }
-		if(hi != null)
-		    while( k > i && !inInterval(temp.key[k-1], lo, loIn, hi, hiIn) ) { k--; }
-		sum+= k - i;
+	// count whole leaves while the last key of the leaf is still in range
+	while (c.hasNext()) {
+	    Node n = c.leaf;
+	    if (hi != null && ! inInterval(n.key[n.nKeys-1], null, false, hi, hiIn)) {
+		for ( ; c.hasNext(); c.pos++) sum++;
+		break;
 	    }
-	    else{
-		if(lo != null)
-		    while( i < temp.nKeys && !inInterval(temp.key[i], lo, loIn, hi, hiIn) ) { i++; }
-		if(hi != null)
-		    while( k > i && !inInterval(temp.key[k-1], lo, loIn, hi, hiIn) ) { k--; }
-		    if(i != 0)
-			i--;
-		    for(; i < k; i++)
-			q.add((Node)temp.ref[i]);
-	    }//else
-	}//while
-	return  sum;
-    } // nKeysInRange
+	    sum += n.nKeys - c.pos;
+	    c.pos = n.nKeys;
+	}
+	return sum;
+    } // nKeysInInterval
 
     /***************************************************************************
      * Return whether key is in an interval
@@ -571,41 +1028,11 @@ public class BpTree <K extends Comparable <K>, V>
      * @param loIn  whether lo is "in" interval
      * @param hi    upper limit, can be null
      * @param hiIn  whether hi is "in" interval
-     * @return  first key within the interval defined by params
+     * @return  first key within the interval defined by params (null if none)
      * @author Zachary Freeland
      */
     public K firstKeyInInterval(K lo, Boolean loIn, K hi, Boolean hiIn) {
-	K first = null;
-	if ( lo == null ){
-	    first = firstKey();
-	} else {
-	    Queue<Node> q = new LinkedList<Node>();
-	    q.add(root);
-	    while( !q.isEmpty() ){
-		Node temp = q.poll();
-		if( temp.isLeaf ){
-		    for( int i = 0; i < temp.nKeys; i++){
-			if( inInterval(temp.key[i], lo, loIn, hi, hiIn) ){
-			    first = temp.key[i];
-			    while(!q.isEmpty() ) { q.poll(); }
-			}//if
-		    }//for
-
-		}else{
-		    for( int i = 0; i < temp.nKeys; i++){
-			if( inInterval(temp.key[i], lo, loIn, hi, hiIn) ){
-			    if(i != 0)
-				q.add((Node)temp.ref[i-1]);
-			    q.add((Node)temp.ref[i]);
-			}//if
-		    }//for
-
-		}//else
-
-	    }//while
-
-	}//else
-	return first;
+	return cursor(lo, loIn, hi, hiIn).peekKey();
     }
 
 
@@ -615,33 +1042,38 @@ public class BpTree <K extends Comparable <K>, V>
      * @param loIn  whether lo is "in" interval
      * @param hi    upper limit, can be null
      * @param hiIn  whether hi is "in" interval
-     * @return  last key within the interval defined by params
+     * @return  last key within the interval defined by params (null if none)
      * @author Zachary Freeland
      */
     public K lastKeyInInterval(K lo, Boolean loIn, K hi, Boolean hiIn) {
-	K last = null;
-	if ( hi == null ){
-	    last = lastKey();
-	} else {
-	    Node n = root;
-	    int i = n.nKeys;
-	    int j = 0;
-	    while(!n.isLeaf){
-		i = n.nKeys;
-		while( !inInterval(n.key[i], lo, loIn, hi, hiIn) && i >= 0 )
-		    i--;
-		// key[i] < (|| =) hi after loop
-		n = (Node)n.ref[i];
-	    }
-	    i = n.nKeys;
-	    while( !inInterval(n.key[i], lo, loIn, hi, hiIn) && i >= 0 )
-		i--;
-	    //key[i] < (|| =) hi after loop
-	    last = n.key[i];
-	}
-	return last;
+	K last = (hi == null) ? lastKey() : floorKey(root, hi, hiIn);
+	return (last != null && inInterval(last, lo, loIn, null, false)) ? last : null;
     }
 
+    /***************************************************************************
+     * Return the largest key <= key (< key if not inclusive) in the subtree
+     * rooted at node n.  Only when the leaf reached has no such key does the
+     * search back up into the subtree to the left.
+     * @param n          the root of the subtree
+     * @param key        the key to compare with
+     * @param inclusive  whether key itself may be returned
+     * @return  the largest such key (null if there is none)
+     */
+    private K floorKey (Node n, K key, boolean inclusive)
+    {
+        count++;
+        int i = search (key, n);
+        if (n.isLeaf) {
+            int j = (i >= 0) ? (inclusive ? i : i - 1) : -i - 2;
+            return (j >= 0) ? n.key [j] : null;
+        } // if
+        int  c     = child (i);
+        K    floor = floorKey ((Node) n.ref [c], key, inclusive);
+        if (floor != null || c == 0) return floor;
+        for (n = (Node) n.ref [c - 1]; ! n.isLeaf; n = (Node) n.ref [n.nKeys]) count++;
+        return (n.nKeys > 0) ? n.key [n.nKeys - 1] : null;
+    } // floorKey
+
 
     /***************************************************************************
      * The main method used for testing.
@@ -649,7 +1081,7 @@ public class BpTree <K extends Comparable <K>, V>
      */
     public static void main (String [] args)
     {
-        BpTree <Integer, Integer> bpt = new BpTree <Integer, Integer> (Integer.class, Integer.class);
+        BpTree <Integer, Integer> bpt = new BpTree <Integer, Integer> (Integer.class, Integer.class, 5);
         int totKeys = 45;
         if (args.length == 1) totKeys = Integer.valueOf (args [0]);
         for (int i = 1; i < totKeys; i += 2) bpt.put (i, i * i);
@@ -659,8 +1091,56 @@ public class BpTree <K extends Comparable <K>, V>
         } // for
         out.println ("-------------------------------------------");
         out.println ("Average number of nodes accessed = " + bpt.count / (double) totKeys);
+
+        for (int i = 1; i < totKeys; i += 4) bpt.remove (i);                 // every other key, forcing borrows and merges
+        out.println ("-------------------------------------------");
+        bpt.print (bpt.root, 0);
+        out.println ("after removes: size = " + bpt.size () + ", keys = " + bpt.keySet ());
+
+        for (int ord : new int [] { 5, DEFAULT_ORDER }) {
+            BpTree <Integer, Integer> big = new BpTree <Integer, Integer> (Integer.class, Integer.class, ord);
+            for (int i = 0; i < 1000000; i++) big.put (i * 0x9e3779b1, i);    // distinct keys in scrambled order
+            big.count = 0;
+            for (int i = 0; i < 100000; i++) big.get (i * 0x9e3779b1);
+            out.println ("order " + ord + ": average number of nodes accessed per lookup in 1M keys = "
+                         + big.count / 100000.0);
+        } // for
+
+        List <Map.Entry <Integer, Integer>> sorted = new ArrayList <> ();
+        for (int i = 0; i < 2000000; i++) sorted.add (new AbstractMap.SimpleEntry <> (i, i));
+        for (int rep = 0; rep < 3; rep++) {
+            BpTree <Integer, Integer> byPut  = new BpTree <Integer, Integer> (Integer.class, Integer.class, 16);
+            BpTree <Integer, Integer> byLoad = new BpTree <Integer, Integer> (Integer.class, Integer.class, 16);
+            long t0 = System.nanoTime ();
+            for (Map.Entry <Integer, Integer> e : sorted) byPut.put (e.getKey (), e.getValue ());
+            long t1 = System.nanoTime ();
+            byLoad.bulkLoad (sorted.iterator (), 1.0);
+            long t2 = System.nanoTime ();
+            out.println ("order 16, 2M sorted keys: put " + (t1 - t0) / 1000000 + " ms, height " + byPut.height ()
+                         + "; bulkLoad " + (t2 - t1) / 1000000 + " ms, height " + byLoad.height ());
+        } // for
+
+        for (boolean counted : new boolean [] { false, true }) {
+            BpTree <Integer, Integer> t = new BpTree <Integer, Integer> (Integer.class, Integer.class, DEFAULT_ORDER, counted);
+            t.bulkLoad (sorted.iterator (), 0.9);
+            long t0 = System.nanoTime (), sum = 0;
+            for (int i = 0; i < 1000; i++) sum += t.nKeysInInterval (i, true, 1000000 + i, false);
+            out.println ((counted ? "counted" : "plain  ") + " tree: 1000 x nKeysInInterval over 1M keys in "
+                         + (System.nanoTime () - t0) / 1000000 + " ms (" + sum / 1000 + " keys each)");
+        } // for
     } // main
 
+    /***************************************************************************
+     * Return the height of the B+Tree (the number of levels).
+     * @return  the height
+     */
+    private int height ()
+    {
+        int h = 1;
+        for (Node n = root; ! n.isLeaf; n = (Node) n.ref [0]) h++;
+        return h;
+    } // height
+
     /***************************************************************************
      * SubMap class below is derived from the SubMap implementation in api class
      * java.util.concurrent.ConcurrentSkipListMap, Authors are as noted in the
@@ -898,12 +1378,7 @@ public class BpTree <K extends Comparable <K>, V>
 	 */
 
         public K firstKey() {
-	    if ( size() == 0 )
-		return null;
-	    else if (lo == null)
-		return t.firstKey();
-	    else
-		return t.firstKeyInInterval(lo, loInclusive, hi, hiInclusive);
+	    return t.firstKeyInInterval(lo, loInclusive, hi, hiInclusive);
         }
 
 
@@ -913,33 +1388,20 @@ public class BpTree <K extends Comparable <K>, V>
 	 * @author Zachary Freeland
 	 */
         public K lastKey() {
-	    if ( size() == 0 )
-		return null;
-	    else if (hi == null)
-		return t.lastKey();
-	    else
-		return t.lastKeyInInterval(lo, loInclusive, hi, hiInclusive);
+	    return t.lastKeyInInterval(lo, loInclusive, hi, hiInclusive);
 	}
 
 	/***************************************************************************
-	 * Returns copy of entrySet from underlying tree after removing extraneous
-	 * entries
+	 * Returns a view of the entries of the underlying tree within the range,
+	 * scanned with a cursor
 	 * @return  Set of entries view of SubMap
 	 * @author Zachary Freeland
 	 */
 
         public Set<Map.Entry<K,V>> entrySet() {
-            Set<Map.Entry<K,V>> es = entrySetView;
-            if (es != null){
-		entrySetView = t.entrySet();
-		Object[] entries = entrySetView.toArray();
-		K e = null;
-		for(int i=0; i < entries.length; i++)
-		    if( !inBounds( (e = ((Map.Entry<K,V>)entries[i]).getKey()) ) )
-			entrySetView.remove(e);
-		es = entrySetView;
-	    }
-	    return es;
+	    if (entrySetView == null)
+		entrySetView = t.entries(lo, loInclusive, hi, hiInclusive);
+	    return entrySetView;
         }
     }// SubMap class
 
@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * @file  BufferPool.java
+ *
+ * @author   agent
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import static java.lang.System.out;
+import java.util.*;
+
+/*******************************************************************************
+ * This class provides a bounded pool of page frames caching the pages of a
+ * random access file.  A page must be pinned while in use and unpinned when
+ * done; only unpinned frames may be evicted.  Victims are chosen using the
+ * CLOCK (second chance) algorithm and dirty victims are written back first.
+ */
+public class BufferPool
+{
+    /** The default number of frames in a pool.
+     */
+    public static final int DEFAULT_FRAMES = 64;
+
+    /***************************************************************************
+     * This inner class defines the frames that hold cached pages.
+     */
+    private class Frame
+    {
+        int        pageNo = -1;
+        ByteBuffer page;
+        int        pinCount;
+        boolean    referenced;
+        boolean    dirty;
+        Frame ()
+        {
+            page = ByteBuffer.allocate (pageSize);
+        } // constructor
+    } // Frame inner class
+
+    /** The random access file holding the pages.
+     */
+    private final RandomAccessFile file;
+
+    /** The size of a page in bytes.
+     */
+    private final int pageSize;
+
+    /** The frames making up the pool (allocated as they are first needed).
+     */
+    private final Frame [] frame;
+
+    /** The number of frames allocated so far.
+     */
+    private int nAlloc = 0;
+
+    /** Map from page number to the frame currently holding the page.
+     */
+    private final Map <Integer, Frame> pageTable;
+
+    /** The position of the clock hand.
+     */
+    private int hand = 0;
+
+    /** Counter for the number of pins served from the pool.
+     */
+    private long hits = 0;
+
+    /** Counter for the number of pins requiring a file read.
+     */
+    private long misses = 0;
+
+    /***************************************************************************
+     * Construct a buffer pool over the given file.
+     * @param _file      the random access file holding the pages
+     * @param _pageSize  the size of a page in bytes
+     * @param nFrames    the maximum number of pages cached at once
+     */
+    public BufferPool (RandomAccessFile _file, int _pageSize, int nFrames)
+    {
+        file      = _file;
+        pageSize  = _pageSize;
+        frame     = new Frame [Math.max (1, nFrames)];
+        pageTable = new HashMap <Integer, Frame> ();
+    } // BufferPool
+
+    /***************************************************************************
+     * Pin the given page, reading it into a frame if it is not already cached.
+     * Pages beyond the end of the file are returned zero filled.
+     * @param pageNo  the number of the page to pin
+     * @return  the page's bytes (use absolute gets/puts)
+     */
+    public ByteBuffer pin (int pageNo)
+    {
+        Frame f = pageTable.get (pageNo);
+        if (f != null) {
+            hits++;
+        } else {
+            misses++;
+            f = victim ();
+            read (pageNo, f);
+            pageTable.put (pageNo, f);
+        } // if
+        f.pinCount++;
+        f.referenced = true;
+        return f.page;
+    } // pin
+
+    /***************************************************************************
+     * Unpin the given page, marking it dirty if it was modified.
+     * @param pageNo  the number of the page to unpin
+     * @param dirty   whether the page was modified while pinned
+     */
+    public void unpin (int pageNo, boolean dirty)
+    {
+        Frame f = pageTable.get (pageNo);
+        if (f == null || f.pinCount == 0) {
+            out.println ("BufferPool.unpin: page " + pageNo + " is not pinned");
+            return;
+        } // if
+        f.pinCount--;
+        f.dirty |= dirty;
+    } // unpin
+
+    /***************************************************************************
+     * Write all dirty pages back to the file.
+     */
+    public void flush ()
+    {
+        for (int i = 0; i < nAlloc; i++) if (frame [i].dirty) write (frame [i]);
+    } // flush
+
+    /***************************************************************************
+     * Drop all cached pages without writing them back (e.g., after the file
+     * has been truncated).
+     */
+    public void discard ()
+    {
+        pageTable.clear ();
+        for (int i = 0; i < nAlloc; i++) {
+            Frame f = frame [i];
+            f.pageNo   = -1;
+            f.pinCount = 0;
+            f.dirty    = f.referenced = false;
+        } // for
+    } // discard
+
+    /***************************************************************************
+     * Return the number of pins served from the pool.
+     * @return  the hit count
+     */
+    public long getHits ()
+    {
+        return hits;
+    } // getHits
+
+    /***************************************************************************
+     * Return the number of pins that had to read the file.
+     * @return  the miss count
+     */
+    public long getMisses ()
+    {
+        return misses;
+    } // getMisses
+
+    /***************************************************************************
+     * Convert the pool's statistics to a string.
+     * @return  the hits, misses and hit ratio of the pool
+     */
+    public String toString ()
+    {
+        long total = hits + misses;
+        return "BufferPool (frames = " + frame.length + ", hits = " + hits + ", misses = " + misses +
+               ", hit ratio = " + (total == 0 ? 0.0 : hits / (double) total) + ")";
+    } // toString
+
+    /***************************************************************************
+     * Choose a frame to reuse by sweeping the clock hand past referenced frames,
+     * clearing their reference bits, until an unpinned, unreferenced one is found.
+     * Until the pool is full a new frame is allocated instead, so a small file
+     * (e.g., a temporary result) takes only as many frames as it has pages.
+     * @return  the (now empty) victim frame
+     */
+    private Frame victim ()
+    {
+        if (nAlloc < frame.length) return frame [nAlloc++] = new Frame ();
+
+        for (int sweep = 0; sweep < 2 * frame.length; sweep++) {
+            Frame f = frame [hand];
+            hand = (hand + 1) % frame.length;
+            if (f.pinCount > 0) continue;
+            if (f.referenced) { f.referenced = false; continue; }
+            if (f.dirty) write (f);
+            if (f.pageNo >= 0) pageTable.remove (f.pageNo);
+            f.pageNo = -1;
+            return f;
+        } // for
+        throw new IllegalStateException ("BufferPool.victim: all " + frame.length + " frames are pinned");
+    } // victim
+
+    /***************************************************************************
+     * Read the given page into frame f.
+     * @param pageNo  the number of the page to read
+     * @param f       the frame to read it into
+     */
+    private void read (int pageNo, Frame f)
+    {
+        byte [] b = f.page.array ();
+        int     n = 0;
+        try {
+            long pos = (long) pageNo * pageSize;
+            if (pos < file.length ()) {
+                file.seek (pos);
+                for (int r; n < pageSize && (r = file.read (b, n, pageSize - n)) > 0; ) n += r;
+            } // if
+        } catch (IOException ex) {
+            out.println ("BufferPool.read: unable to read page " + pageNo + " - " + ex);
+        } // try
+        Arrays.fill (b, n, pageSize, (byte) 0);
+        f.pageNo = pageNo;
+        f.dirty  = false;
+    } // read
+
+    /***************************************************************************
+     * Write the page held in frame f back to the file.
+     * @param f  the frame to write
+     */
+    private void write (Frame f)
+    {
+        try {
+            file.seek ((long) f.pageNo * pageSize);
+            file.write (f.page.array (), 0, pageSize);
+            f.dirty = false;
+        } catch (IOException ex) {
+            out.println ("BufferPool.write: unable to write page " + f.pageNo + " - " + ex);
+        } // try
+    } // write
+
+} // BufferPool class
+
@@ -0,0 +1,810 @@
+/*******************************************************************************
+ * @file  ConcurrentBpTree.java
+ *
+ * @author   agent
+ */
+
+import java.lang.reflect.Array;
+import static java.lang.System.out;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/*******************************************************************************
+ * This class provides B+Tree maps that may be used by many threads at once,
+ * using optimistic lock coupling.  Each node has a StampedLock whose stamp
+ * serves as the node's version.  A reader takes no locks: it notes a node's
+ * version, reads the node, and validates the version before moving on to the
+ * child (and again at the leaf).  If a writer changed the node in the meantime
+ * the operation restarts from the root.
+ * <p>
+ * A writer descends the same way and then upgrades the version of the leaf to
+ * a write lock, which fails (and restarts) if the leaf changed.  A full node
+ * met on the way down is split at once.  The writer write locks the node and
+ * its parent (or the root pointer), so the parent always has room for the new
+ * separator and no split ever spreads upwards.  Writers thus hold at most two
+ * latches, and only for the moment it takes to change the nodes.
+ * <p>
+ * Remove deletes the key from its leaf without merging underfull nodes, as is
+ * usual for concurrent B+trees.  Iterators are weakly consistent: they copy
+ * one leaf at a time, following the chain of leaves.
+ */
+public class ConcurrentBpTree <K extends Comparable <K>, V>
+       extends AbstractMap <K, V>
+       implements SortedMap <K, V>
+{
+    /** The result of an attempt that must be restarted.
+     */
+    private static final Object RETRY = new Object ();
+
+    /** The maximum fanout for a node (a node holds up to order - 1 keys).
+     */
+    private final int order;
+
+    /** The class for type K.
+     */
+    private final Class <K> classK;
+
+    /***************************************************************************
+     * This inner class defines nodes of the tree.  Its fields are written only
+     * under the node's write lock, and read optimistically.
+     */
+    private final class Node
+    {
+        final StampedLock lock = new StampedLock ();
+        final boolean     isLeaf;
+        int               nKeys;
+        final K []        key;
+        final Object []   ref;
+        Node              next;                            // the next leaf to the right (leaves only)
+
+        @SuppressWarnings("unchecked")
+        Node (boolean _isLeaf)
+        {
+            isLeaf = _isLeaf;
+            key    = (K []) Array.newInstance (classK, order - 1);
+            ref    = new Object [order];
+        } // constructor
+    } // Node inner class
+
+    /** The root of the tree and the lock guarding the pointer to it (it is
+     *  write locked to grow the tree by a level).
+     */
+    private Node root;
+    private final StampedLock rootLock = new StampedLock ();
+
+    /** The number of keys in the tree.
+     */
+    private final LongAdder keyCount = new LongAdder ();
+
+    /** The number of restarted operations (for performance testing).
+     */
+    private final LongAdder restarts = new LongAdder ();
+
+    /***************************************************************************
+     * Construct an empty map with the same default order as BpTree.
+     * @param _classK  the class for keys (K)
+     */
+    public ConcurrentBpTree (Class <K> _classK)
+    {
+        this (_classK, BpTree.DEFAULT_ORDER);
+    } // ConcurrentBpTree
+
+    /***************************************************************************
+     * Construct an empty map whose nodes have the given maximum fanout.
+     * @param _classK  the class for keys (K)
+     * @param _order   the maximum fanout of a node (at least 4)
+     */
+    public ConcurrentBpTree (Class <K> _classK, int _order)
+    {
+        if (_order < 4) throw new IllegalArgumentException ("ConcurrentBpTree: order must be at least 4");
+        classK = _classK;
+        order  = _order;
+        root   = new Node (true);
+    } // ConcurrentBpTree
+
+    /***************************************************************************
+     * Return null to use the natural order based on the key type.
+     */
+    public Comparator <? super K> comparator ()
+    {
+        return null;
+    } // comparator
+
+    /***************************************************************************
+     * Return the number of keys in the map (exact when no update is under way).
+     * @return  the size of the map
+     */
+    public int size ()
+    {
+        return (int) keyCount.sum ();
+    } // size
+
+    /***************************************************************************
+     * Return the number of operations restarted because a node they read was
+     * changed by a writer (a measure of contention).
+     * @return  the number of restarts
+     */
+    public long restarts ()
+    {
+        return restarts.sum ();
+    } // restarts
+
+    /***************************************************************************
+     * Given the key, look up the value in the tree, taking no locks.
+     * @param key  the key used for look up
+     * @return  the value associated with the key (null if none)
+     */
+    @SuppressWarnings("unchecked")
+    public V get (Object key)
+    {
+        if (key == null) throw new NullPointerException ();
+        for (int attempt = 0; ; attempt++) {
+            Object v = tryGet ((K) key);
+            if (v != RETRY) return (V) v;
+            retry (attempt);
+        } // for
+    } // get
+
+    /***************************************************************************
+     * Determine whether the tree contains the key.
+     * @param key  the key to look for
+     * @return  whether the key is present
+     */
+    public boolean containsKey (Object key)
+    {
+        return get (key) != null;
+    } // containsKey
+
+    /***************************************************************************
+     * Put the key-value pair in the tree, replacing the value of an existing key.
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the previous value associated with the key (null if none)
+     */
+    @SuppressWarnings("unchecked")
+    public V put (K key, V value)
+    {
+        if (key == null || value == null) throw new NullPointerException ();
+        for (int attempt = 0; ; attempt++) {
+            Object v = tryPut (key, value);
+            if (v != RETRY) return (V) v;
+            retry (attempt);
+        } // for
+    } // put
+
+    /***************************************************************************
+     * Remove the key (and its value) from its leaf.  Nodes are not merged.
+     * @param key  the key to remove
+     * @return  the value that was associated with the key (null if none)
+     */
+    @SuppressWarnings("unchecked")
+    public V remove (Object key)
+    {
+        if (key == null) throw new NullPointerException ();
+        for (int attempt = 0; ; attempt++) {
+            Object v = tryRemove ((K) key);
+            if (v != RETRY) return (V) v;
+            retry (attempt);
+        } // for
+    } // remove
+
+    /***************************************************************************
+     * Note a restarted operation and back off: spin briefly at first, then
+     * yield, in case the writer holding the latch has been descheduled.
+     * @param attempt  the number of restarts of this operation so far
+     */
+    private void retry (int attempt)
+    {
+        restarts.increment ();
+        if (attempt < 16) Thread.onSpinWait ();
+        else              Thread.yield ();
+    } // retry
+
+    /***************************************************************************
+     * Attempt a lookup, descending with optimistic reads.
+     * @param key  the key to look up
+     * @return  the value (null if none), or RETRY if a node changed under it
+     */
+    @SuppressWarnings("unchecked")
+    private Object tryGet (K key)
+    {
+        long rs = rootLock.tryOptimisticRead ();
+        Node n  = root;
+        long v  = n.lock.tryOptimisticRead ();
+        if (v == 0 || ! rootLock.validate (rs)) return RETRY;
+
+        try {
+            while ( ! n.isLeaf) {
+                Node c  = (Node) n.ref [child (search (key, n))];
+                long cv = c.lock.tryOptimisticRead ();
+                if (cv == 0 || ! n.lock.validate (v)) return RETRY;
+                n = c;
+                v = cv;
+            } // while
+            int    i   = search (key, n);
+            Object val = (i >= 0) ? n.ref [i] : null;
+            return n.lock.validate (v) ? val : RETRY;
+        } catch (RuntimeException ex) {                    // a torn read (e.g., a null key mid-shift)
+            if (n.lock.validate (v)) throw ex;
+            return RETRY;
+        } // try
+    } // tryGet
+
+    /***************************************************************************
+     * Attempt an insertion.  Descend optimistically, splitting the first full
+     * node met (and restarting), then upgrade the leaf to a write lock.
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the previous value (null if none), or RETRY
+     */
+    @SuppressWarnings("unchecked")
+    private Object tryPut (K key, V value)
+    {
+        long rs = rootLock.tryOptimisticRead ();
+        Node n  = root;
+        long v  = n.lock.tryOptimisticRead ();
+        if (v == 0 || ! rootLock.validate (rs)) return RETRY;
+        Node p  = null;
+        long pv = 0;
+
+        try {
+            for ( ; ; ) {
+                if (n.nKeys == order - 1) {
+                    split (p, (p == null) ? rs : pv, n, v);
+                    return RETRY;
+                } // if
+                if (n.isLeaf) break;
+                Node c  = (Node) n.ref [child (search (key, n))];
+                long cv = c.lock.tryOptimisticRead ();
+                if (cv == 0 || ! n.lock.validate (v)) return RETRY;
+                p  = n;
+                pv = v;
+                n  = c;
+                v  = cv;
+            } // for
+            if ((v = n.lock.tryConvertToWriteLock (v)) == 0) return RETRY;
+        } catch (RuntimeException ex) {
+            if (n.lock.validate (v)) throw ex;
+            return RETRY;
+        } // try
+
+        try {                                              // the leaf is write locked and has room
+            int i = search (key, n);
+            if (i >= 0) {
+                Object old = n.ref [i];
+                n.ref [i]  = value;
+                return old;
+            } // if
+            i = -i - 1;
+            System.arraycopy (n.key, i, n.key, i + 1, n.nKeys - i);
+            System.arraycopy (n.ref, i, n.ref, i + 1, n.nKeys - i);
+            n.key [i] = key;
+            n.ref [i] = value;
+            n.nKeys++;
+        } finally {
+            n.lock.unlockWrite (v);
+        } // try
+        keyCount.increment ();
+        return null;
+    } // tryPut
+
+    /***************************************************************************
+     * Split the full node n, whose parent is p (null if n is the root), moving
+     * the upper half of its keys to a new right sibling.  Both p (or the root
+     * pointer) and n are write locked by upgrading the versions read on the
+     * way down; if either has changed since, nothing is done.  Since p was not
+     * full when passed, it has room for the separator.
+     * @param p   the parent of n (null if n is the root)
+     * @param pv  the version of p (of the root pointer if p is null)
+     * @param n   the full node
+     * @param v   the version of n
+     */
+    private void split (Node p, long pv, Node n, long v)
+    {
+        StampedLock pl = (p == null) ? rootLock : p.lock;
+        long        ps = pl.tryConvertToWriteLock (pv);
+        if (ps == 0) return;
+        long        ns = n.lock.tryConvertToWriteLock (v);
+        if (ns == 0) { pl.unlockWrite (ps); return; }
+
+        try {
+            Node r   = new Node (n.isLeaf);
+            int  mid = n.nKeys / 2;
+            K    sep = n.key [mid];
+            if (n.isLeaf) {                                // the separator is r's first key
+                r.nKeys = n.nKeys - mid;
+                System.arraycopy (n.key, mid, r.key, 0, r.nKeys);
+                System.arraycopy (n.ref, mid, r.ref, 0, r.nKeys);
+                r.next  = n.next;
+                n.next  = r;
+            } else {                                       // the separator moves up
+                r.nKeys = n.nKeys - mid - 1;
+                System.arraycopy (n.key, mid + 1, r.key, 0, r.nKeys);
+                System.arraycopy (n.ref, mid + 1, r.ref, 0, r.nKeys + 1);
+            } // if
+            Arrays.fill (n.key, mid, n.nKeys, null);
+            Arrays.fill (n.ref, n.isLeaf ? mid : mid + 1, n.nKeys + 1, null);
+            n.nKeys = mid;
+
+            if (p == null) {                               // the tree grows a level
+                Node nr = new Node (false);
+                nr.key [0] = sep;
+                nr.ref [0] = n;
+                nr.ref [1] = r;
+                nr.nKeys   = 1;
+                root       = nr;
+            } else {
+                int i = -search (sep, p) - 1;
+                System.arraycopy (p.key, i, p.key, i + 1, p.nKeys - i);
+                System.arraycopy (p.ref, i + 1, p.ref, i + 2, p.nKeys - i);
+                p.key [i]     = sep;
+                p.ref [i + 1] = r;
+                p.nKeys++;
+            } // if
+        } finally {
+            n.lock.unlockWrite (ns);
+            pl.unlockWrite (ps);
+        } // try
+    } // split
+
+    /***************************************************************************
+     * Attempt a removal: descend optimistically, then upgrade the leaf to a
+     * write lock and take the key out.
+     * @param key  the key to remove
+     * @return  the removed value (null if none), or RETRY
+     */
+    @SuppressWarnings("unchecked")
+    private Object tryRemove (K key)
+    {
+        long rs = rootLock.tryOptimisticRead ();
+        Node n  = root;
+        long v  = n.lock.tryOptimisticRead ();
+        if (v == 0 || ! rootLock.validate (rs)) return RETRY;
+
+        try {
+            while ( ! n.isLeaf) {
+                Node c  = (Node) n.ref [child (search (key, n))];
+                long cv = c.lock.tryOptimisticRead ();
+                if (cv == 0 || ! n.lock.validate (v)) return RETRY;
+                n = c;
+                v = cv;
+            } // while
+            if (search (key, n) < 0) return n.lock.validate (v) ? null : RETRY;
+            if ((v = n.lock.tryConvertToWriteLock (v)) == 0) return RETRY;
+        } catch (RuntimeException ex) {
+            if (n.lock.validate (v)) throw ex;
+            return RETRY;
+        } // try
+
+        Object old;
+        try {
+            int i = search (key, n);
+            old   = n.ref [i];
+            System.arraycopy (n.key, i + 1, n.key, i, n.nKeys - i - 1);
+            System.arraycopy (n.ref, i + 1, n.ref, i, n.nKeys - i - 1);
+            n.nKeys--;
+            n.key [n.nKeys] = null;
+            n.ref [n.nKeys] = null;
+        } finally {
+            n.lock.unlockWrite (v);
+        } // try
+        keyCount.decrement ();
+        return old;
+    } // tryRemove
+
+    /***************************************************************************
+     * Binary search node n for the key (the node may be changing under an
+     * optimistic read, in which case the caller discards the result).
+     * @param k  the key to search for
+     * @param n  the node to search
+     * @return  the key's position if found, else -(insertion point) - 1
+     */
+    private int search (K k, Node n)
+    {
+        int lo = 0, hi = n.nKeys - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c   = k.compareTo (n.key [mid]);
+            if (c == 0) return mid;
+            if (c < 0) hi = mid - 1;
+            else       lo = mid + 1;
+        } // while
+        return -lo - 1;
+    } // search
+
+    /***************************************************************************
+     * Return the position of the child to descend to, given the result of
+     * searching an internal node (keys equal to a separator go right).
+     * @param i  the result of search
+     * @return  the child position
+     */
+    private static int child (int i)
+    {
+        return (i >= 0) ? i + 1 : -i - 1;
+    } // child
+
+    /***************************************************************************
+     * This inner class iterates over the entries in an interval, copying one
+     * leaf at a time under a validated optimistic read.  An entry is returned
+     * if it was present when its leaf was copied.
+     */
+    private final class Cursor
+           implements Iterator <Map.Entry <K, V>>
+    {
+        private K []      keys;
+        private Object [] vals;
+        private int       n, pos;
+        private Node      nextLeaf;
+        private final K       hi;
+        private final boolean hiIn;
+        private K         last;
+
+        /***********************************************************************
+         * Position the cursor at the first key in [lo, hi].
+         */
+        @SuppressWarnings("unchecked")
+        Cursor (K lo, boolean loIn, K _hi, boolean _hiIn)
+        {
+            hi   = _hi;
+            hiIn = _hiIn;
+            keys = (K []) Array.newInstance (classK, order - 1);
+            vals = new Object [order - 1];
+            for (int attempt = 0; ! seek (lo); attempt++) retry (attempt);
+            if (lo != null) {
+                while (pos < n && (keys [pos].compareTo (lo) < 0 || (! loIn && keys [pos].compareTo (lo) == 0))) pos++;
+            } // if
+        } // constructor
+
+        /***********************************************************************
+         * Copy the leaf that would hold lo (the leftmost leaf if lo is null).
+         * @return  whether the copy is consistent
+         */
+        @SuppressWarnings("unchecked")
+        private boolean seek (K lo)
+        {
+            long rs = rootLock.tryOptimisticRead ();
+            Node l  = root;
+            long v  = l.lock.tryOptimisticRead ();
+            if (v == 0 || ! rootLock.validate (rs)) return false;
+            try {
+                while ( ! l.isLeaf) {
+                    Node c  = (Node) l.ref [(lo == null) ? 0 : child (search (lo, l))];
+                    long cv = c.lock.tryOptimisticRead ();
+                    if (cv == 0 || ! l.lock.validate (v)) return false;
+                    l = c;
+                    v = cv;
+                } // while
+                return copy (l, v);
+            } catch (RuntimeException ex) {
+                if (l.lock.validate (v)) throw ex;
+                return false;
+            } // try
+        } // seek
+
+        /***********************************************************************
+         * Copy the keys, values and next link of leaf l, read at version v.
+         * @return  whether the leaf was unchanged while copying
+         */
+        private boolean copy (Node l, long v)
+        {
+            if (v == 0) return false;
+            int m = Math.min (l.nKeys, keys.length);
+            System.arraycopy (l.key, 0, keys, 0, m);
+            System.arraycopy (l.ref, 0, vals, 0, m);
+            Node nx = l.next;
+            if ( ! l.lock.validate (v)) return false;
+            n        = m;
+            pos      = 0;
+            nextLeaf = nx;
+            return true;
+        } // copy
+
+        public boolean hasNext ()
+        {
+            while (pos == n) {
+                if (nextLeaf == null) return false;
+                Node l = nextLeaf;
+                for (int attempt = 0; ! copy (l, l.lock.tryOptimisticRead ()); attempt++) retry (attempt);
+            } // while
+            if (hi == null) return true;
+            int c = keys [pos].compareTo (hi);
+            return c < 0 || (hiIn && c == 0);
+        } // hasNext
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry <K, V> next ()
+        {
+            if ( ! hasNext ()) throw new NoSuchElementException ();
+            last = keys [pos];
+            return new AbstractMap.SimpleImmutableEntry <K, V> (last, (V) vals [pos++]);
+        } // next
+
+        public void remove ()
+        {
+            if (last == null) throw new IllegalStateException ();
+            ConcurrentBpTree.this.remove (last);
+            last = null;
+        } // remove
+    } // Cursor inner class
+
+    /***************************************************************************
+     * Return a weakly consistent view of the entries whose keys lie in the
+     * given interval, in key order.
+     * @param lo    lower limit of interval, can be null
+     * @param loIn  whether lo is "in" interval
+     * @param hi    upper limit, can be null
+     * @param hiIn  whether hi is "in" interval
+     * @return  the set view of the entries in the interval
+     */
+    Set <Map.Entry <K, V>> entries (final K lo, final boolean loIn, final K hi, final boolean hiIn)
+    {
+        return new AbstractSet <Map.Entry <K, V>> () {
+            public Iterator <Map.Entry <K, V>> iterator ()
+            {
+                return new Cursor (lo, loIn, hi, hiIn);
+            } // iterator
+
+            public int size ()
+            {
+                if (lo == null && hi == null) return ConcurrentBpTree.this.size ();
+                int k = 0;
+                for (Iterator <Map.Entry <K, V>> it = iterator (); it.hasNext (); it.next ()) k++;
+                return k;
+            } // size
+        };
+    } // entries
+
+    /***************************************************************************
+     * Return a weakly consistent view of all the entries, in key order.
+     * @return  the set view of the map
+     */
+    public Set <Map.Entry <K, V>> entrySet ()
+    {
+        return entries (null, false, null, false);
+    } // entrySet
+
+    /***************************************************************************
+     * Return the first (smallest) key in the interval [lo, hi].
+     * @return  the first key in the interval (null if none)
+     */
+    K firstKeyInInterval (K lo, boolean loIn, K hi, boolean hiIn)
+    {
+        Cursor c = new Cursor (lo, loIn, hi, hiIn);
+        return c.hasNext () ? c.next ().getKey () : null;
+    } // firstKeyInInterval
+
+    /***************************************************************************
+     * Return the last (largest) key in the interval [lo, hi], by scanning it.
+     * @return  the last key in the interval (null if none)
+     */
+    K lastKeyInInterval (K lo, boolean loIn, K hi, boolean hiIn)
+    {
+        K k = null;
+        for (Cursor c = new Cursor (lo, loIn, hi, hiIn); c.hasNext (); ) k = c.next ().getKey ();
+        return k;
+    } // lastKeyInInterval
+
+    /***************************************************************************
+     * Return the first (smallest) key in the map.
+     * @return  the first key in the map
+     */
+    public K firstKey ()
+    {
+        K k = firstKeyInInterval (null, false, null, false);
+        if (k == null) throw new NoSuchElementException ();
+        return k;
+    } // firstKey
+
+    /***************************************************************************
+     * Return the last (largest) key in the map, taken from the rightmost leaf
+     * (scanning only if removes have emptied it).
+     * @return  the last key in the map
+     */
+    @SuppressWarnings("unchecked")
+    public K lastKey ()
+    {
+        for (int attempt = 0; ; attempt++) {
+            long rs = rootLock.tryOptimisticRead ();
+            Node n  = root;
+            long v  = n.lock.tryOptimisticRead ();
+            if (v == 0 || ! rootLock.validate (rs)) { retry (attempt); continue; }
+            try {
+                while ( ! n.isLeaf) {
+                    Node c  = (Node) n.ref [n.nKeys];
+                    long cv = c.lock.tryOptimisticRead ();
+                    if (cv == 0 || ! n.lock.validate (v)) break;
+                    n = c;
+                    v = cv;
+                } // while
+                if (n.isLeaf) {
+                    int m = n.nKeys;
+                    K   k = (m > 0) ? n.key [m - 1] : null;
+                    if (n.lock.validate (v)) {
+                        if (k == null) k = lastKeyInInterval (null, false, null, false);
+                        if (k == null) throw new NoSuchElementException ();
+                        return k;
+                    } // if
+                } // if
+            } catch (RuntimeException ex) {
+                if (n.lock.validate (v)) throw ex;
+            } // try
+            retry (attempt);
+        } // for
+    } // lastKey
+
+    /***************************************************************************
+     * Return the portion of the map whose keys are strictly less than toKey.
+     * @param toKey  the upper bound (exclusive)
+     * @return  the submap view
+     */
+    public SortedMap <K, V> headMap (K toKey)
+    {
+        return new SubMap (null, false, toKey, false);
+    } // headMap
+
+    /***************************************************************************
+     * Return the portion of the map whose keys are at least fromKey.
+     * @param fromKey  the lower bound (inclusive)
+     * @return  the submap view
+     */
+    public SortedMap <K, V> tailMap (K fromKey)
+    {
+        return new SubMap (fromKey, true, null, false);
+    } // tailMap
+
+    /***************************************************************************
+     * Return the portion of the map whose keys are in [fromKey, toKey).
+     * @param fromKey  the lower bound (inclusive)
+     * @param toKey    the upper bound (exclusive)
+     * @return  the submap view
+     */
+    public SortedMap <K, V> subMap (K fromKey, K toKey)
+    {
+        return new SubMap (fromKey, true, toKey, false);
+    } // subMap
+
+    /***************************************************************************
+     * This inner class provides views of the keys of the tree in an interval.
+     * Lookups and updates outside the interval are rejected; the views are
+     * weakly consistent, like the tree's own.
+     */
+    private final class SubMap
+            extends AbstractMap <K, V>
+            implements SortedMap <K, V>
+    {
+        private final K       lo, hi;
+        private final boolean loIn, hiIn;
+
+        SubMap (K _lo, boolean _loIn, K _hi, boolean _hiIn)
+        {
+            if (_lo != null && _hi != null && _lo.compareTo (_hi) > 0)
+                throw new IllegalArgumentException ("inconsistent range");
+            lo   = _lo;
+            loIn = _loIn;
+            hi   = _hi;
+            hiIn = _hiIn;
+        } // constructor
+
+        @SuppressWarnings("unchecked")
+        private boolean inBounds (Object key)
+        {
+            K k = (K) key;
+            if (lo != null) { int c = k.compareTo (lo); if (c < 0 || (c == 0 && ! loIn)) return false; }
+            if (hi != null) { int c = k.compareTo (hi); if (c > 0 || (c == 0 && ! hiIn)) return false; }
+            return true;
+        } // inBounds
+
+        public V get (Object key)             { return inBounds (key) ? ConcurrentBpTree.this.get (key) : null; }
+        public boolean containsKey (Object key) { return get (key) != null; }
+        public V remove (Object key)          { return inBounds (key) ? ConcurrentBpTree.this.remove (key) : null; }
+
+        public V put (K key, V value)
+        {
+            if ( ! inBounds (key)) throw new IllegalArgumentException ("key out of range");
+            return ConcurrentBpTree.this.put (key, value);
+        } // put
+
+        public Set <Map.Entry <K, V>> entrySet () { return entries (lo, loIn, hi, hiIn); }
+        public Comparator <? super K> comparator () { return null; }
+
+        public K firstKey ()
+        {
+            K k = firstKeyInInterval (lo, loIn, hi, hiIn);
+            if (k == null) throw new NoSuchElementException ();
+            return k;
+        } // firstKey
+
+        public K lastKey ()
+        {
+            K k = lastKeyInInterval (lo, loIn, hi, hiIn);
+            if (k == null) throw new NoSuchElementException ();
+            return k;
+        } // lastKey
+
+        public SortedMap <K, V> headMap (K toKey)           { return sub (null, toKey); }
+        public SortedMap <K, V> tailMap (K fromKey)         { return sub (fromKey, null); }
+        public SortedMap <K, V> subMap (K fromKey, K toKey) { return sub (fromKey, toKey); }
+
+        /***********************************************************************
+         * Narrow this view to [fromKey, toKey) (a null bound keeps this one's).
+         */
+        private SortedMap <K, V> sub (K fromKey, K toKey)
+        {
+            if ((fromKey != null && ! inBounds (fromKey)) ||
+                (toKey != null && ((hi != null && toKey.compareTo (hi) > 0) || (lo != null && toKey.compareTo (lo) < 0))))
+                throw new IllegalArgumentException ("key out of range");
+            return new SubMap ((fromKey == null) ? lo : fromKey, (fromKey == null) ? loIn : true,
+                               (toKey == null) ? hi : toKey, (toKey == null) ? hiIn : false);
+        } // sub
+    } // SubMap inner class
+
+    /***************************************************************************
+     * The main method is used for testing purposes only: threads put disjoint
+     * key sets (checked afterwards), then lookup and update throughput is
+     * compared with a BpTree behind a single lock as the thread count grows
+     * (each put inserts a new key).
+     * @param args  the command-line arguments (args [0] gives ms per run)
+     */
+    public static void main (String [] args) throws InterruptedException
+    {
+        final int ms      = (args.length == 1) ? Integer.valueOf (args [0]) : 1000;
+        final int nKeys   = 1000000;
+        final int maxThr  = Runtime.getRuntime ().availableProcessors ();
+
+        final ConcurrentBpTree <Integer, Integer> check = new ConcurrentBpTree <Integer, Integer> (Integer.class, 8);
+        Thread [] ws = new Thread [Math.max (2, maxThr)];
+        for (int t = 0; t < ws.length; t++) {
+            final int id = t, nt = ws.length;
+            ws [t] = new Thread (() -> { for (int i = id; i < 200000; i += nt) check.put (i * 0x9e3779b1, i); });
+            ws [t].start ();
+        } // for
+        for (Thread w : ws) w.join ();
+        int bad = 0, prev = Integer.MIN_VALUE, seen = 0;
+        for (int i = 0; i < 200000; i++) if ( ! Integer.valueOf (i).equals (check.get (i * 0x9e3779b1))) bad++;
+        for (Integer k : check.keySet ()) { if (seen++ > 0 && k <= prev) bad++; prev = k; }
+        out.println ("ConcurrentBpTree: " + ws.length + " threads put 200000 keys, size " + check.size ()
+                     + ", scanned " + seen + ", " + bad + " errors, " + check.restarts () + " restarts");
+
+        final ConcurrentBpTree <Integer, Integer> olc    = new ConcurrentBpTree <Integer, Integer> (Integer.class);
+        final BpTree <Integer, Integer>           locked = new BpTree <Integer, Integer> (Integer.class, Integer.class);
+        for (int i = 0; i < nKeys; i++) { olc.put (i * 0x9e3779b1, i); locked.put (i * 0x9e3779b1, i); }
+
+        int run = 0;
+        for (int nThr = 1; nThr <= maxThr; nThr *= 2) {
+            for (int kind = 0; kind < 2; kind++, run++) {
+                final boolean useOlc = kind == 0;
+                final long [] ops    = new long [nThr];
+                final long    end    = System.nanoTime () + ms * 1000000L;
+                Thread []     th     = new Thread [nThr];
+                for (int t = 0; t < nThr; t++) {
+                    final int id    = t;
+                    final int fresh = nKeys + ((run << 6 | id) << 20);   // keys this thread inserts
+                    th [t] = new Thread (() -> {
+                        Random rng = new Random (id);
+                        long   k   = 0;
+                        while ((k & 1023) != 0 || System.nanoTime () < end) {
+                            int     i   = rng.nextInt (nKeys);
+                            boolean put = i % 10 == 0;
+                            int     key = (put ? fresh + (int) k : i) * 0x9e3779b1;
+                            if (useOlc) {
+                                if (put) olc.put (key, i); else olc.get (key);
+                            } else {
+                                synchronized (locked) { if (put) locked.put (key, i); else locked.get (key); }
+                            } // if
+                            k++;
+                        } // while
+                        ops [id] = k;
+                    });
+                    th [t].start ();
+                } // for
+                for (Thread t : th) t.join ();
+                long sum = 0;
+                for (long k : ops) sum += k;
+                out.println (nThr + " threads, 90% get / 10% put: " + (useOlc ? "ConcurrentBpTree " : "locked BpTree    ")
+                             + sum / ms + " ops/ms");
+            } // for
+        } // for
+    } // main
+
+} // ConcurrentBpTree class
@@ -6,9 +6,16 @@
  * @see http://snippets.dzone.com/posts/show/93
  */
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /*******************************************************************************
  * This class provides methods for converting Java's primitive data types into
- * byte arrays.
+ * byte arrays and back.  All conversions use big-endian byte order (the order
+ * of java.io.DataOutput and of a default ByteBuffer).  Besides the methods that
+ * return a new array, there are methods that write into (and read from) a
+ * caller-supplied byte array or byte buffer at a given offset, which allocate
+ * nothing.
  */
 public class Conversions
 {
@@ -19,8 +26,9 @@ public class Conversions
      */
     public static byte [] short2ByteArray (short value)
     {
-        return new byte [] { (byte) (value >>> 8),
-                             (byte) value };
+        byte [] b = new byte [2];
+        short2ByteArray (value, b, 0);
+        return b;
     } // short2ByteArray
 
     /***************************************************************************
@@ -30,10 +38,9 @@ public class Conversions
      */
     public static byte [] int2ByteArray (int value)
     {
-        return new byte [] { (byte) (value >>> 24),
-                             (byte) (value >>> 16),
-                             (byte) (value >>> 8),
-                             (byte) value };
+        byte [] b = new byte [4];
+        int2ByteArray (value, b, 0);
+        return b;
     } // int2ByteArray
 
     /***************************************************************************
@@ -43,14 +50,9 @@ public class Conversions
      */
     public static byte [] long2ByteArray (long value)
     {
-        return new byte [] { (byte) (value >>> 56),
-                             (byte) (value >>> 48),
-                             (byte) (value >>> 40),
-                             (byte) (value >>> 32),
-                             (byte) (value >>> 24),
-                             (byte) (value >>> 16),
-                             (byte) (value >>> 8),
-                             (byte) value };
+        byte [] b = new byte [8];
+        long2ByteArray (value, b, 0);
+        return b;
     } // long2ByteArray
 
     /***************************************************************************
@@ -61,13 +63,9 @@ public class Conversions
      */
     public static byte [] float2ByteArray (float value)
     {
-        int bits = Float.floatToIntBits(value);
-    	byte[] bytes = new byte[4];
-    	bytes[0] = (byte)(bits & 0xff);
-    	bytes[1] = (byte)((bits >> 8) & 0xff);
-    	bytes[2] = (byte)((bits >> 16) & 0xff);
-    	bytes[3] = (byte)((bits >> 24) & 0xff);
-    	return bytes;
+        byte [] b = new byte [4];
+        float2ByteArray (value, b, 0);
+        return b;
     } // float2ByteArray
 
     /***************************************************************************
@@ -78,11 +76,271 @@ public class Conversions
      */
     public static byte [] double2ByteArray (double value)
     {
-        byte[] bytes = new byte[8];
-    	long lng = Double.doubleToLongBits(value);
-    	for(int i = 0; i < 8; i++) bytes[i] = (byte)((lng >> ((7 - i) * 8)) & 0xff);
-    	return bytes;
+        byte [] b = new byte [8];
+        double2ByteArray (value, b, 0);
+        return b;
+    } // double2ByteArray
+
+    //------------------------ Conversions into byte [] ------------------------
+
+    /***************************************************************************
+     * Write a short into byte array b at offset off.
+     * @param value  the short value to convert
+     * @param b      the byte array to write into
+     * @param off    the offset at which to write
+     * @return  the offset just past the written bytes
+     */
+    public static int short2ByteArray (short value, byte [] b, int off)
+    {
+        b [off]     = (byte) (value >>> 8);
+        b [off + 1] = (byte) value;
+        return off + 2;
+    } // short2ByteArray
+
+    /***************************************************************************
+     * Write an int into byte array b at offset off.
+     * @param value  the int value to convert
+     * @param b      the byte array to write into
+     * @param off    the offset at which to write
+     * @return  the offset just past the written bytes
+     */
+    public static int int2ByteArray (int value, byte [] b, int off)
+    {
+        b [off]     = (byte) (value >>> 24);
+        b [off + 1] = (byte) (value >>> 16);
+        b [off + 2] = (byte) (value >>> 8);
+        b [off + 3] = (byte) value;
+        return off + 4;
+    } // int2ByteArray
+
+    /***************************************************************************
+     * Write a long into byte array b at offset off.
+     * @param value  the long value to convert
+     * @param b      the byte array to write into
+     * @param off    the offset at which to write
+     * @return  the offset just past the written bytes
+     */
+    public static int long2ByteArray (long value, byte [] b, int off)
+    {
+        int2ByteArray ((int) (value >>> 32), b, off);
+        return int2ByteArray ((int) value, b, off + 4);
+    } // long2ByteArray
+
+    /***************************************************************************
+     * Write a float into byte array b at offset off.
+     * @param value  the float value to convert
+     * @param b      the byte array to write into
+     * @param off    the offset at which to write
+     * @return  the offset just past the written bytes
+     */
+    public static int float2ByteArray (float value, byte [] b, int off)
+    {
+        return int2ByteArray (Float.floatToIntBits (value), b, off);
+    } // float2ByteArray
+
+    /***************************************************************************
+     * Write a double into byte array b at offset off.
+     * @param value  the double value to convert
+     * @param b      the byte array to write into
+     * @param off    the offset at which to write
+     * @return  the offset just past the written bytes
+     */
+    public static int double2ByteArray (double value, byte [] b, int off)
+    {
+        return long2ByteArray (Double.doubleToLongBits (value), b, off);
     } // double2ByteArray
 
+    //------------------------ Conversions from byte [] ------------------------
+
+    /***************************************************************************
+     * Read a short from byte array b at offset off.
+     * @param b    the byte array to read from
+     * @param off  the offset at which to read
+     * @return  the short value
+     */
+    public static short byteArray2Short (byte [] b, int off)
+    {
+        return (short) ((b [off] << 8) | (b [off + 1] & 0xff));
+    } // byteArray2Short
+
+    /***************************************************************************
+     * Read an int from byte array b at offset off.
+     * @param b    the byte array to read from
+     * @param off  the offset at which to read
+     * @return  the int value
+     */
+    public static int byteArray2Int (byte [] b, int off)
+    {
+        return (b [off] << 24) | ((b [off + 1] & 0xff) << 16) |
+               ((b [off + 2] & 0xff) << 8) | (b [off + 3] & 0xff);
+    } // byteArray2Int
+
+    /***************************************************************************
+     * Read a long from byte array b at offset off.
+     * @param b    the byte array to read from
+     * @param off  the offset at which to read
+     * @return  the long value
+     */
+    public static long byteArray2Long (byte [] b, int off)
+    {
+        return ((long) byteArray2Int (b, off) << 32) | (byteArray2Int (b, off + 4) & 0xffffffffL);
+    } // byteArray2Long
+
+    /***************************************************************************
+     * Read a float from byte array b at offset off.
+     * @param b    the byte array to read from
+     * @param off  the offset at which to read
+     * @return  the float value
+     */
+    public static float byteArray2Float (byte [] b, int off)
+    {
+        return Float.intBitsToFloat (byteArray2Int (b, off));
+    } // byteArray2Float
+
+    /***************************************************************************
+     * Read a double from byte array b at offset off.
+     * @param b    the byte array to read from
+     * @param off  the offset at which to read
+     * @return  the double value
+     */
+    public static double byteArray2Double (byte [] b, int off)
+    {
+        return Double.longBitsToDouble (byteArray2Long (b, off));
+    } // byteArray2Double
+
+    //------------------------ Conversions to/from ByteBuffer ------------------
+
+    /***************************************************************************
+     * Write a short into byte buffer b at offset off (big-endian, whatever the
+     * buffer's own byte order).
+     * @param value  the short value to convert
+     * @param b      the byte buffer to write into
+     * @param off    the offset at which to write
+     * @return  the offset just past the written bytes
+     */
+    public static int short2ByteBuffer (short value, ByteBuffer b, int off)
+    {
+        b.putShort (off, bigEndian (b) ? value : Short.reverseBytes (value));
+        return off + 2;
+    } // short2ByteBuffer
+
+    /***************************************************************************
+     * Write an int into byte buffer b at offset off (big-endian).
+     * @param value  the int value to convert
+     * @param b      the byte buffer to write into
+     * @param off    the offset at which to write
+     * @return  the offset just past the written bytes
+     */
+    public static int int2ByteBuffer (int value, ByteBuffer b, int off)
+    {
+        b.putInt (off, bigEndian (b) ? value : Integer.reverseBytes (value));
+        return off + 4;
+    } // int2ByteBuffer
+
+    /***************************************************************************
+     * Write a long into byte buffer b at offset off (big-endian).
+     * @param value  the long value to convert
+     * @param b      the byte buffer to write into
+     * @param off    the offset at which to write
+     * @return  the offset just past the written bytes
+     */
+    public static int long2ByteBuffer (long value, ByteBuffer b, int off)
+    {
+        b.putLong (off, bigEndian (b) ? value : Long.reverseBytes (value));
+        return off + 8;
+    } // long2ByteBuffer
+
+    /***************************************************************************
+     * Write a float into byte buffer b at offset off (big-endian).
+     * @param value  the float value to convert
+     * @param b      the byte buffer to write into
+     * @param off    the offset at which to write
+     * @return  the offset just past the written bytes
+     */
+    public static int float2ByteBuffer (float value, ByteBuffer b, int off)
+    {
+        return int2ByteBuffer (Float.floatToIntBits (value), b, off);
+    } // float2ByteBuffer
+
+    /***************************************************************************
+     * Write a double into byte buffer b at offset off (big-endian).
+     * @param value  the double value to convert
+     * @param b      the byte buffer to write into
+     * @param off    the offset at which to write
+     * @return  the offset just past the written bytes
+     */
+    public static int double2ByteBuffer (double value, ByteBuffer b, int off)
+    {
+        return long2ByteBuffer (Double.doubleToLongBits (value), b, off);
+    } // double2ByteBuffer
+
+    /***************************************************************************
+     * Read a short from byte buffer b at offset off (big-endian).
+     * @param b    the byte buffer to read from
+     * @param off  the offset at which to read
+     * @return  the short value
+     */
+    public static short byteBuffer2Short (ByteBuffer b, int off)
+    {
+        short v = b.getShort (off);
+        return bigEndian (b) ? v : Short.reverseBytes (v);
+    } // byteBuffer2Short
+
+    /***************************************************************************
+     * Read an int from byte buffer b at offset off (big-endian).
+     * @param b    the byte buffer to read from
+     * @param off  the offset at which to read
+     * @return  the int value
+     */
+    public static int byteBuffer2Int (ByteBuffer b, int off)
+    {
+        int v = b.getInt (off);
+        return bigEndian (b) ? v : Integer.reverseBytes (v);
+    } // byteBuffer2Int
+
+    /***************************************************************************
+     * Read a long from byte buffer b at offset off (big-endian).
+     * @param b    the byte buffer to read from
+     * @param off  the offset at which to read
+     * @return  the long value
+     */
+    public static long byteBuffer2Long (ByteBuffer b, int off)
+    {
+        long v = b.getLong (off);
+        return bigEndian (b) ? v : Long.reverseBytes (v);
+    } // byteBuffer2Long
+
+    /***************************************************************************
+     * Read a float from byte buffer b at offset off (big-endian).
+     * @param b    the byte buffer to read from
+     * @param off  the offset at which to read
+     * @return  the float value
+     */
+    public static float byteBuffer2Float (ByteBuffer b, int off)
+    {
+        return Float.intBitsToFloat (byteBuffer2Int (b, off));
+    } // byteBuffer2Float
+
+    /***************************************************************************
+     * Read a double from byte buffer b at offset off (big-endian).
+     * @param b    the byte buffer to read from
+     * @param off  the offset at which to read
+     * @return  the double value
+     */
+    public static double byteBuffer2Double (ByteBuffer b, int off)
+    {
+        return Double.longBitsToDouble (byteBuffer2Long (b, off));
+    } // byteBuffer2Double
+
+    /***************************************************************************
+     * Determine whether the byte buffer's own byte order is big-endian.
+     * @param b  the byte buffer
+     * @return  whether b is big-endian
+     */
+    private static boolean bigEndian (ByteBuffer b)
+    {
+        return b.order () == ByteOrder.BIG_ENDIAN;
+    } // bigEndian
+
 } // Conversions
 
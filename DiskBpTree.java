@@ -0,0 +1,1244 @@
+/*******************************************************************************
+ * @file  DiskBpTree.java
+ *
+ * @author   agent
+ */
+
+import java.io.*;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import static java.lang.System.out;
+import java.util.*;
+
+/*******************************************************************************
+ * This class provides B+Tree maps kept in an index file rather than on the
+ * heap, mapping keys to record ids (see FileList.getRid).  Each node is a page
+ * of the file, read and written through a buffer pool.  Only the pool's frames
+ * take heap space, however large the index grows.
+ * <p>
+ * Keys are stored in normalized form (see NormalizedKey): byte strings whose
+ * unsigned order is the order of the keys.  A node is searched by comparing
+ * bytes in place with Arrays.compareUnsigned, without decoding any keys.
+ * A node page is slotted:
+ *   header     type, number of keys, start of the key bytes, link
+ *   slots      per key: offset and length of its bytes, then the value
+ *   key bytes  packed at the end of the page, growing down
+ * In a leaf the value is a record id and the link is the next leaf.  In an
+ * internal node the value is the child to the right of the key and the link
+ * is the leftmost child.  A separator pushed up by a leaf split is the shortest
+ * prefix of the right leaf's first key that still exceeds the left leaf's last
+ * key (suffix truncation).  This keeps internal nodes short and fanout high.
+ * <p>
+ * Remove takes the key out of its leaf without merging underfull nodes.  The
+ * space is reclaimed when the page is next rewritten, but a page emptied by
+ * removes is neither freed nor reused: the file only shrinks when the index
+ * is rebuilt.  Page 0 is a header recording the root, the page count, the key
+ * count and a fingerprint of the key domains, so an index can be reopened.
+ * A temporary index (see temporary) instead starts out empty and has its file
+ * deleted once it is dropped or becomes unreachable.
+ * <p>
+ * A RidIndex views an index keyed on an attribute value followed by a record
+ * id as a map from each value to the record ids having it, for secondary
+ * indexes on attributes whose values repeat (see Table.createIndex).
+ */
+public class DiskBpTree
+       extends AbstractMap <KeyType, Long>
+       implements SortedMap <KeyType, Long>, Flushable
+{
+    /** File extension for index files.
+     */
+    private static final String EXT = ".idx";
+
+    /** Magic number identifying an index file header.
+     */
+    private static final int MAGIC = 0x42704978;
+
+    /** Version of the index file format.
+     */
+    private static final int VERSION = 1;
+
+    /** The size of a page in bytes.
+     */
+    private static final int PAGE_SIZE = FileList.PAGE_SIZE;
+
+    /** Page types.
+     */
+    private static final short LEAF = 1, INTERNAL = 2;
+
+    /** Size of the header of a node page (type, number of keys, start of the
+     *  key bytes, link) and of a slot in a leaf (offset, length, record id) and
+     *  in an internal node (offset, length, child).
+     */
+    private static final int HEADER = 12, LEAF_SLOT = 12, INNER_SLOT = 8;
+
+    /** The longest key (encoded) allowed, so that a node holds at least four.
+     */
+    public static final int MAX_KEY = (PAGE_SIZE - HEADER) / 4 - LEAF_SLOT;
+
+    /** The name of the index (its file is name + EXT).
+     */
+    private final String name;
+
+    /** The domains (data types) of the key's attributes, used to decode keys.
+     */
+    private final Class [] domain;
+
+    /** The random access file holding the pages.
+     */
+    private RandomAccessFile file;
+
+    /** The buffer pool caching the pages.
+     */
+    private BufferPool pool;
+
+    /** The root page, the number of pages and the number of keys.
+     */
+    private int  root;
+    private int  nPages;
+    private long keyCount;
+
+    /** The counter for the number of pages accessed (for performance testing).
+     */
+    private long count = 0;
+
+    /** The separator and new right sibling produced by the last split (set by
+     *  insert for the parent to insert).
+     */
+    private byte [] splitKey;
+    private int     splitPage;
+
+    /** The (pinned) leaf page found by the last leafFor.
+     */
+    private ByteBuffer leaf;
+
+    /** Removes the file of a temporary index (null unless temporary).
+     */
+    private Cleaner.Cleanable remover;
+
+    /***************************************************************************
+     * Open (or create) the index with the given name, caching the default
+     * number of pages.
+     * @param _name    the name of the index
+     * @param _domain  the domains of the key's attributes
+     */
+    public DiskBpTree (String _name, Class [] _domain)
+    {
+        this (_name, _domain, BufferPool.DEFAULT_FRAMES);
+    } // DiskBpTree
+
+    /***************************************************************************
+     * Open (or create) the index with the given name.  An existing index file
+     * written for different key domains (or not an index) is moved aside.
+     * @param _name    the name of the index
+     * @param _domain  the domains of the key's attributes
+     * @param nFrames  the number of pages the buffer pool caches
+     */
+    public DiskBpTree (String _name, Class [] _domain, int nFrames)
+    {
+        this (_name, _domain, nFrames, false);
+    } // DiskBpTree
+
+    /***************************************************************************
+     * Open (or create) the index with the given name, which if temporary starts
+     * out empty (any existing file is truncated) and has its file deleted once
+     * it is dropped or becomes unreachable.
+     * @param _name    the name of the index
+     * @param _domain  the domains of the key's attributes
+     * @param nFrames  the number of pages the buffer pool caches
+     * @param temp     whether the index is temporary
+     */
+    private DiskBpTree (String _name, Class [] _domain, int nFrames, boolean temp)
+    {
+        name   = _name;
+        domain = _domain;
+        try {
+            file = new RandomAccessFile (name + EXT, "rw");
+            if (temp) file.setLength (0);
+            else      recover ();
+            pool = new BufferPool (file, PAGE_SIZE, nFrames);
+            if (nPages == 0) {
+                nPages   = 1;
+                keyCount = 0;
+                root     = newPage (LEAF, -1);
+            } // if
+        } catch (IOException ex) {
+            throw new UncheckedIOException ("DiskBpTree: unable to open " + name + EXT, ex);
+        } // try
+
+        if (temp) remover = OpenFiles.temporary (this, file, name + EXT);
+        else      OpenFiles.add (this);
+    } // DiskBpTree
+
+    /***************************************************************************
+     * Create a temporary index (e.g., a secondary index, which the table
+     * rebuilds from its tuples whenever it is created).  It is not flushed at
+     * shutdown and its file is deleted when it is dropped or garbage collected.
+     * @param _name    the name of the index
+     * @param _domain  the domains of the key's attributes
+     * @return  the new, empty index
+     */
+    public static DiskBpTree temporary (String _name, Class [] _domain)
+    {
+        return new DiskBpTree (_name, _domain, BufferPool.DEFAULT_FRAMES, true);
+    } // temporary
+
+    /***************************************************************************
+     * Recover the root, page count and key count from the file header.  A file
+     * that does not hold an index for these key domains is not overwritten: it
+     * is renamed (with a ".mismatch-<time>" suffix) and the index starts out
+     * empty in a new file.
+     */
+    private void recover () throws IOException
+    {
+        if (file.length () == 0) return;
+
+        if (file.length () >= PAGE_SIZE) {
+            file.seek (0);
+            if (file.readInt () == MAGIC && file.readInt () == VERSION && file.readLong () == fingerprint ()) {
+                root     = file.readInt ();
+                nPages   = file.readInt ();
+                keyCount = file.readLong ();
+                return;
+            } // if
+        } // if
+
+        String aside = name + EXT + ".mismatch-" + System.currentTimeMillis ();
+        file.close ();
+        if ( ! new File (name + EXT).renameTo (new File (aside))) {
+            throw new IOException (name + EXT + " does not match the key domains and cannot be moved aside");
+        } // if
+        out.println ("DiskBpTree.recover: " + name + EXT + " does not match the key domains - moved it to " + aside);
+        file = new RandomAccessFile (name + EXT, "rw");
+    } // recover
+
+    /***************************************************************************
+     * Compute a fingerprint of the key domains.
+     * @return  the fingerprint
+     */
+    private long fingerprint ()
+    {
+        long h = 17;
+        for (Class d : domain) h = 31 * h + d.getName ().hashCode ();
+        return h;
+    } // fingerprint
+
+    /***************************************************************************
+     * Write the header and all modified pages to the file.
+     */
+    public void flush ()
+    {
+        if (file == null) return;
+
+        ByteBuffer h = pool.pin (0);
+        h.putInt (0, MAGIC).putInt (4, VERSION).putLong (8, fingerprint ())
+         .putInt (16, root).putInt (20, nPages).putLong (24, keyCount);
+        pool.unpin (0, true);
+        pool.flush ();
+    } // flush
+
+    /***************************************************************************
+     * Close the index file (after flushing it).
+     */
+    public void close ()
+    {
+        flush ();
+        OpenFiles.remove (this);
+        try {
+            file.close ();
+        } catch (IOException ex) {
+            out.println ("DiskBpTree.close: unable to close - " + ex);
+        } // try
+        file = null;
+    } // close
+
+    /***************************************************************************
+     * Close the index file without writing anything further and delete it.
+     */
+    public void drop ()
+    {
+        OpenFiles.remove (this);
+        pool.discard ();
+        if (remover != null) {
+            remover.clean ();
+            file = null;
+            return;
+        } // if
+        try {
+            if (file != null) file.close ();
+        } catch (IOException ex) {
+            out.println ("DiskBpTree.drop: unable to close - " + ex);
+        } // try
+        file = null;
+        new File (name + EXT).delete ();
+    } // drop
+
+    /***************************************************************************
+     * Return null to use the natural order based on the key type.
+     */
+    public Comparator <? super KeyType> comparator ()
+    {
+        return null;
+    } // comparator
+
+    /***************************************************************************
+     * Return the number of keys in the index.
+     * @return  the size of the index
+     */
+    public int size ()
+    {
+        return (int) Math.min (keyCount, Integer.MAX_VALUE);
+    } // size
+
+    /***************************************************************************
+     * Return the number of pages in the index file (including the header).
+     * @return  the number of pages
+     */
+    public int pages ()
+    {
+        return nPages;
+    } // pages
+
+    /***************************************************************************
+     * Return the buffer pool caching this index's pages (e.g., for its hit/miss
+     * counters).
+     * @return  the buffer pool
+     */
+    public BufferPool getBufferPool ()
+    {
+        return pool;
+    } // getBufferPool
+
+    /***************************************************************************
+     * Given the key, look up its record id.
+     * @param key  the key used for look up
+     * @return  the record id associated with the key (null if none)
+     */
+    public Long get (Object key)
+    {
+        byte []    k = bytes ((KeyType) key);
+        int        p = leafFor (k, null);
+        ByteBuffer b = leaf;
+        int        i = search (b, k);
+        Long       v = (i >= 0) ? b.getLong (HEADER + i * LEAF_SLOT + 4) : null;
+        pool.unpin (p, false);
+        return v;
+    } // get
+
+    /***************************************************************************
+     * Determine whether the index contains the key.
+     * @param key  the key to look for
+     * @return  whether the key is present
+     */
+    public boolean containsKey (Object key)
+    {
+        return get (key) != null;
+    } // containsKey
+
+    /***************************************************************************
+     * Put the key and record id in the index, replacing the record id of an
+     * existing key.  A leaf with no room is split, and so on up the tree.
+     * @param key  the key to insert
+     * @param rid  the record id to insert
+     * @return  the previous record id associated with the key (null if none)
+     */
+    public Long put (KeyType key, Long rid)
+    {
+        byte [] k = bytes (key);
+        if (k.length > MAX_KEY) throw new IllegalArgumentException ("DiskBpTree.put: key of " + k.length + " bytes is too long");
+
+        int [] path = new int [32];
+        int    h    = leafFor (k, path);
+        int    p    = path [h];
+
+        ByteBuffer b = leaf;
+        int        i = search (b, k);
+        if (i >= 0) {
+            int  at  = HEADER + i * LEAF_SLOT + 4;
+            long old = b.getLong (at);
+            b.putLong (at, rid);
+            pool.unpin (p, true);
+            return old;
+        } // if
+        pool.unpin (p, false);
+
+        keyCount++;
+        boolean split = insert (p, k, rid);
+        while (split && h > 0) split = insert (path [--h], splitKey, splitPage);
+        if (split) root = newRoot (path [0], splitKey, splitPage);
+        return null;
+    } // put
+
+    /***************************************************************************
+     * Remove the key from its leaf (leaving its bytes until the page is next
+     * rewritten).
+     * @param key  the key to remove
+     * @return  the record id that was associated with the key (null if none)
+     */
+    public Long remove (Object key)
+    {
+        byte []    k = bytes ((KeyType) key);
+        int        p = leafFor (k, null);
+        ByteBuffer b = leaf;
+        int        i = search (b, k);
+        if (i < 0) { pool.unpin (p, false); return null; }
+
+        int     n   = b.getShort (2);
+        int     at  = HEADER + i * LEAF_SLOT;
+        long    old = b.getLong (at + 4);
+        byte [] a   = b.array ();
+        System.arraycopy (a, at + LEAF_SLOT, a, at, (n - i - 1) * LEAF_SLOT);
+        b.putShort (2, (short) (n - 1));
+        pool.unpin (p, true);
+        keyCount--;
+        return old;
+    } // remove
+
+    /***************************************************************************
+     * Descend from the root to the leaf that holds (or would hold) the key.
+     * The leaf is left pinned, in field leaf, for the caller to unpin.
+     * @param k     the encoded key
+     * @param path  if not null, receives the pages visited, root first
+     * @return  the leaf's page (or its depth in path, if path is given)
+     */
+    private int leafFor (byte [] k, int [] path)
+    {
+        int p = root;
+        for (int h = 0; ; h++) {
+            if (path != null) path [h] = p;
+            ByteBuffer b = pin (p);
+            if (b.getShort (0) == LEAF) {
+                leaf = b;
+                return (path == null) ? p : h;
+            } // if
+            int c = child (b, childPos (search (b, k)));
+            pool.unpin (p, false);
+            p = c;
+        } // for
+    } // leafFor
+
+    /***************************************************************************
+     * Insert the key and value (record id or right child) into the given node.
+     * If it has no room even after compacting, it is split: the upper part of
+     * its entries move to a new right sibling, and splitKey and splitPage are
+     * set for the parent.
+     * @param p      the page of the node
+     * @param k      the encoded key (not in the node)
+     * @param value  the record id (leaf) or child page (internal node)
+     * @return  whether the node was split
+     */
+    private boolean insert (int p, byte [] k, long value)
+    {
+        ByteBuffer b    = pin (p);
+        boolean    leaf = b.getShort (0) == LEAF;
+        int        ss   = leaf ? LEAF_SLOT : INNER_SLOT;
+        int        n    = b.getShort (2);
+        int        heap = b.getShort (4) & 0xffff;
+        int        ip   = -search (b, k) - 1;
+
+        if (heap - HEADER - n * ss >= ss + k.length) {     // room in the free space
+            byte [] a  = b.array ();
+            int     at = HEADER + ip * ss;
+            System.arraycopy (a, at, a, at + ss, (n - ip) * ss);
+            heap -= k.length;
+            System.arraycopy (k, 0, a, heap, k.length);
+            b.putShort (at, (short) heap).putShort (at + 2, (short) k.length);
+            if (leaf) b.putLong (at + 4, value);
+            else      b.putInt (at + 4, (int) value);
+            b.putShort (2, (short) (n + 1)).putShort (4, (short) heap);
+            pool.unpin (p, true);
+            return false;
+        } // if
+
+        byte [][] keys = new byte [n + 1][];                // take out the entries, adding the new one
+        long []   vals = new long [n + 1];
+        int       live = 0;
+        for (int j = 0, e = 0; e <= n; e++) {
+            if (e == ip) { keys [e] = k; vals [e] = value; }
+            else         { keys [e] = key (b, j); vals [e] = leaf ? b.getLong (HEADER + j * ss + 4) : b.getInt (HEADER + j * ss + 4); j++; }
+            live += ss + keys [e].length;
+        } // for
+        int link = b.getInt (8);
+
+        if (live <= PAGE_SIZE - HEADER) {                  // room once compacted
+            write (b, leaf, link, keys, vals, 0, n + 1);
+            pool.unpin (p, true);
+            return false;
+        } // if
+
+        int s = 0;                                         // split about half the bytes each way
+        for (int acc = 0; acc + ss + keys [s].length <= live / 2; s++) acc += ss + keys [s].length;
+        s = Math.max (1, Math.min (s, leaf ? n : n - 1));
+
+        int        r  = newPage (leaf ? LEAF : INTERNAL, -1);
+        ByteBuffer rb = pin (r);
+        if (leaf) {
+            write (rb, true, link, keys, vals, s, n + 1);
+            write (b, true, r, keys, vals, 0, s);
+            splitKey = separator (keys [s - 1], keys [s]);
+        } else {                                           // the middle key moves up
+            write (rb, false, (int) vals [s], keys, vals, s + 1, n + 1);
+            write (b, false, link, keys, vals, 0, s);
+            splitKey = keys [s];
+        } // if
+        splitPage = r;
+        pool.unpin (r, true);
+        pool.unpin (p, true);
+        return true;
+    } // insert
+
+    /***************************************************************************
+     * Rewrite node page b compactly with entries from through to - 1.
+     * @param b     the page
+     * @param leaf  whether it is a leaf
+     * @param link  the next leaf (leaf) or the leftmost child (internal node)
+     * @param keys  the encoded keys
+     * @param vals  the record ids or right children
+     */
+    private static void write (ByteBuffer b, boolean leaf, int link, byte [][] keys, long [] vals, int from, int to)
+    {
+        int     ss   = leaf ? LEAF_SLOT : INNER_SLOT;
+        int     heap = PAGE_SIZE;
+        byte [] a    = b.array ();
+        for (int e = from; e < to; e++) {
+            int at = HEADER + (e - from) * ss;
+            heap  -= keys [e].length;
+            System.arraycopy (keys [e], 0, a, heap, keys [e].length);
+            b.putShort (at, (short) heap).putShort (at + 2, (short) keys [e].length);
+            if (leaf) b.putLong (at + 4, vals [e]);
+            else      b.putInt (at + 4, (int) vals [e]);
+        } // for
+        b.putShort (0, leaf ? LEAF : INTERNAL).putShort (2, (short) (to - from)).putShort (4, (short) heap).putInt (8, link);
+    } // write
+
+    /***************************************************************************
+     * Return the shortest prefix of right that is greater than left (given
+     * left < right), to separate two leaves.
+     * @param left   the last key of the left leaf
+     * @param right  the first key of the right leaf
+     * @return  the separator
+     */
+    private static byte [] separator (byte [] left, byte [] right)
+    {
+        return Arrays.copyOf (right, Arrays.mismatch (left, right) + 1);
+    } // separator
+
+    /***************************************************************************
+     * Append a new empty node page to the file.
+     * @param type  LEAF or INTERNAL
+     * @param link  the next leaf or leftmost child
+     * @return  the number of the new page
+     */
+    private int newPage (short type, int link)
+    {
+        int        p = nPages++;
+        ByteBuffer b = pool.pin (p);
+        b.putShort (0, type).putShort (2, (short) 0).putShort (4, (short) PAGE_SIZE).putInt (8, link);
+        pool.unpin (p, true);
+        return p;
+    } // newPage
+
+    /***************************************************************************
+     * Make a new root over the old root, which just split (the tree grows up).
+     * @param left   the old root
+     * @param sep    the separator
+     * @param right  the old root's new right sibling
+     * @return  the page of the new root
+     */
+    private int newRoot (int left, byte [] sep, int right)
+    {
+        int p = newPage (INTERNAL, left);
+        insert (p, sep, right);
+        return p;
+    } // newRoot
+
+    /***************************************************************************
+     * Pin the given node page, counting the access.
+     * @param p  the page
+     * @return  the page's bytes
+     */
+    private ByteBuffer pin (int p)
+    {
+        count++;
+        return pool.pin (p);
+    } // pin
+
+    /***************************************************************************
+     * Binary search node page b for the encoded key, comparing bytes in place.
+     * @param b  the page
+     * @param k  the encoded key
+     * @return  the key's position if found, else -(insertion point) - 1
+     */
+    private static int search (ByteBuffer b, byte [] k)
+    {
+        int     ss = (b.getShort (0) == LEAF) ? LEAF_SLOT : INNER_SLOT;
+        byte [] a  = b.array ();
+        int     lo = 0, hi = b.getShort (2) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int at  = HEADER + mid * ss;
+            int off = b.getShort (at) & 0xffff;
+            int c   = Arrays.compareUnsigned (a, off, off + (b.getShort (at + 2) & 0xffff), k, 0, k.length);
+            if (c == 0) return mid;
+            if (c > 0) hi = mid - 1;
+            else       lo = mid + 1;
+        } // while
+        return -lo - 1;
+    } // search
+
+    /***************************************************************************
+     * Return the position of the child to descend to, given the result of
+     * searching an internal node (keys equal to a separator go right).
+     * @param i  the result of search
+     * @return  the child position
+     */
+    private static int childPos (int i)
+    {
+        return (i >= 0) ? i + 1 : -i - 1;
+    } // childPos
+
+    /***************************************************************************
+     * Return the page of child c of internal node page b.
+     * @param b  the page
+     * @param c  the child position (0 is the leftmost)
+     * @return  the child's page
+     */
+    private static int child (ByteBuffer b, int c)
+    {
+        return (c == 0) ? b.getInt (8) : b.getInt (HEADER + (c - 1) * INNER_SLOT + 4);
+    } // child
+
+    /***************************************************************************
+     * Return a copy of the bytes of the ith key in node page b.
+     * @param b  the page
+     * @param i  the key's position
+     * @return  the encoded key
+     */
+    private static byte [] key (ByteBuffer b, int i)
+    {
+        int at  = HEADER + i * ((b.getShort (0) == LEAF) ? LEAF_SLOT : INNER_SLOT);
+        int off = b.getShort (at) & 0xffff;
+        return Arrays.copyOfRange (b.array (), off, off + (b.getShort (at + 2) & 0xffff));
+    } // key
+
+    /***************************************************************************
+     * Return the encoding of the key, reusing it if the key is normalized.
+     * @param key  the key
+     * @return  the encoded key
+     */
+    private static byte [] bytes (KeyType key)
+    {
+        if (key instanceof NormalizedKey) return ((NormalizedKey) key).bytes ();
+        Comparable [] v = new Comparable [key.size ()];
+        for (int j = 0; j < v.length; j++) v [j] = key.get (j);
+        return NormalizedKey.encode (v);
+    } // bytes
+
+    /***************************************************************************
+     * Decode an encoded key read from a leaf.
+     * @param k  the encoded key
+     * @return  the key (normalized, keeping the bytes)
+     */
+    private KeyType decode (byte [] k)
+    {
+        return new NormalizedKey (NormalizedKey.decode (k, domain), k);
+    } // decode
+
+    /***************************************************************************
+     * Return the height of the tree (1 for a lone leaf).
+     * @return  the number of levels
+     */
+    public int height ()
+    {
+        int h = 1;
+        for (int p = root; ; h++) {
+            ByteBuffer b = pin (p);
+            boolean    l = b.getShort (0) == LEAF;
+            int        c = l ? -1 : child (b, 0);
+            pool.unpin (p, false);
+            if (l) return h;
+            p = c;
+        } // for
+    } // height
+
+    /***************************************************************************
+     * This inner class iterates over the entries in an interval, in key order,
+     * reading a leaf at a time and following the links between leaves.
+     */
+    private final class Cursor
+            implements Iterator <Map.Entry <KeyType, Long>>
+    {
+        private int           page, pos;
+        private final byte [] hi;
+        private final boolean hiIn;
+
+        /***********************************************************************
+         * Position the cursor at the first key in [lo, hi].
+         */
+        Cursor (KeyType lo, boolean loIn, KeyType _hi, boolean _hiIn)
+        {
+            hi   = (_hi == null) ? null : bytes (_hi);
+            hiIn = _hiIn;
+            if (lo == null) {
+                page = leftmost ();
+                pos  = 0;
+            } else {
+                byte [] k = bytes (lo);
+                page = leafFor (k, null);
+                ByteBuffer b = leaf;
+                int        i = search (b, k);
+                pos = (i >= 0) ? (loIn ? i : i + 1) : -i - 1;
+                pool.unpin (page, false);
+            } // if
+        } // constructor
+
+        /***********************************************************************
+         * Return the leftmost leaf.
+         */
+        private int leftmost ()
+        {
+            for (int p = root; ; ) {
+                ByteBuffer b = pin (p);
+                boolean    l = b.getShort (0) == LEAF;
+                int        c = l ? -1 : child (b, 0);
+                pool.unpin (p, false);
+                if (l) return p;
+                p = c;
+            } // for
+        } // leftmost
+
+        public boolean hasNext ()
+        {
+            while (page >= 0) {
+                ByteBuffer b = pin (page);
+                if (pos < b.getShort (2)) {
+                    boolean in = true;
+                    if (hi != null) {
+                        int at  = HEADER + pos * LEAF_SLOT;
+                        int off = b.getShort (at) & 0xffff;
+                        int c   = Arrays.compareUnsigned (b.array (), off, off + (b.getShort (at + 2) & 0xffff), hi, 0, hi.length);
+                        in = c < 0 || (hiIn && c == 0);
+                    } // if
+                    pool.unpin (page, false);
+                    if ( ! in) page = -1;
+                    return in;
+                } // if
+                int next = b.getInt (8);
+                pool.unpin (page, false);
+                page = next;
+                pos  = 0;
+            } // while
+            return false;
+        } // hasNext
+
+        public Map.Entry <KeyType, Long> next ()
+        {
+            if ( ! hasNext ()) throw new NoSuchElementException ();
+            ByteBuffer b   = pin (page);
+            byte []    k   = key (b, pos);
+            long       rid = b.getLong (HEADER + pos * LEAF_SLOT + 4);
+            pool.unpin (page, false);
+            pos++;
+            return new AbstractMap.SimpleImmutableEntry <KeyType, Long> (decode (k), rid);
+        } // next
+    } // Cursor inner class
+
+    /***************************************************************************
+     * Return a view of the entries whose keys lie in the given interval, in key
+     * order.
+     * @param lo    lower limit of interval, can be null
+     * @param loIn  whether lo is "in" interval
+     * @param hi    upper limit, can be null
+     * @param hiIn  whether hi is "in" interval
+     * @return  the set view of the entries in the interval
+     */
+    Set <Map.Entry <KeyType, Long>> entries (final KeyType lo, final boolean loIn, final KeyType hi, final boolean hiIn)
+    {
+        return new AbstractSet <Map.Entry <KeyType, Long>> () {
+            public Iterator <Map.Entry <KeyType, Long>> iterator ()
+            {
+                return new Cursor (lo, loIn, hi, hiIn);
+            } // iterator
+
+            public int size ()
+            {
+                if (lo == null && hi == null) return DiskBpTree.this.size ();
+                int k = 0;
+                for (Cursor c = new Cursor (lo, loIn, hi, hiIn); c.hasNext (); c.pos++) k++;
+                return k;
+            } // size
+        };
+    } // entries
+
+    /***************************************************************************
+     * Return a view of all the entries, in key order.
+     * @return  the set view of the index
+     */
+    public Set <Map.Entry <KeyType, Long>> entrySet ()
+    {
+        return entries (null, false, null, false);
+    } // entrySet
+
+    /***************************************************************************
+     * Return the first key in the interval [lo, hi].
+     * @return  the first key in the interval (null if none)
+     */
+    KeyType firstKeyInInterval (KeyType lo, boolean loIn, KeyType hi, boolean hiIn)
+    {
+        Cursor c = new Cursor (lo, loIn, hi, hiIn);
+        return c.hasNext () ? c.next ().getKey () : null;
+    } // firstKeyInInterval
+
+    /***************************************************************************
+     * Return the last key in the interval [lo, hi]: the last key up to hi,
+     * found by descending towards hi (and backing up past empty leaves), if it
+     * is not below lo.
+     * @return  the last key in the interval (null if none)
+     */
+    KeyType lastKeyInInterval (KeyType lo, boolean loIn, KeyType hi, boolean hiIn)
+    {
+        byte [] k = floor (root, (hi == null) ? null : bytes (hi), hiIn);
+        if (k == null) return null;
+        if (lo != null) {
+            byte [] l = bytes (lo);
+            int     c = Arrays.compareUnsigned (k, l);
+            if (c < 0 || (c == 0 && ! loIn)) return null;
+        } // if
+        return decode (k);
+    } // lastKeyInInterval
+
+    /***************************************************************************
+     * Return the largest key up to hi in the subtree rooted at page p.
+     * @param p     the root of the subtree
+     * @param hi    the upper limit (null for none)
+     * @param hiIn  whether hi itself qualifies
+     * @return  the encoded key (null if none)
+     */
+    private byte [] floor (int p, byte [] hi, boolean hiIn)
+    {
+        ByteBuffer b = pin (p);
+        int        n = b.getShort (2);
+        if (b.getShort (0) == LEAF) {
+            int i = n - 1;
+            if (hi != null) {
+                int s = search (b, hi);
+                i = (s >= 0) ? (hiIn ? s : s - 1) : -s - 2;
+            } // if
+            byte [] k = (i >= 0) ? key (b, i) : null;
+            pool.unpin (p, false);
+            return k;
+        } // if
+
+        int    c     = (hi == null) ? n : childPos (search (b, hi));
+        int [] kids  = new int [c + 1];
+        for (int j = 0; j <= c; j++) kids [j] = child (b, j);
+        pool.unpin (p, false);
+        for (int j = c; j >= 0; j--) {                     // back up past empty subtrees
+            byte [] k = floor (kids [j], (j == c) ? hi : null, hiIn);
+            if (k != null) return k;
+        } // for
+        return null;
+    } // floor
+
+    /***************************************************************************
+     * Return the first (smallest) key in the index.
+     * @return  the first key
+     */
+    public KeyType firstKey ()
+    {
+        KeyType k = firstKeyInInterval (null, false, null, false);
+        if (k == null) throw new NoSuchElementException ();
+        return k;
+    } // firstKey
+
+    /***************************************************************************
+     * Return the last (largest) key in the index.
+     * @return  the last key
+     */
+    public KeyType lastKey ()
+    {
+        KeyType k = lastKeyInInterval (null, false, null, false);
+        if (k == null) throw new NoSuchElementException ();
+        return k;
+    } // lastKey
+
+    /***************************************************************************
+     * Return the portion of the index whose keys are strictly less than toKey.
+     * @param toKey  the upper bound (exclusive)
+     * @return  the submap view
+     */
+    public SortedMap <KeyType, Long> headMap (KeyType toKey)
+    {
+        return new SubMap (null, false, toKey, false);
+    } // headMap
+
+    /***************************************************************************
+     * Return the portion of the index whose keys are at least fromKey.
+     * @param fromKey  the lower bound (inclusive)
+     * @return  the submap view
+     */
+    public SortedMap <KeyType, Long> tailMap (KeyType fromKey)
+    {
+        return new SubMap (fromKey, true, null, false);
+    } // tailMap
+
+    /***************************************************************************
+     * Return the portion of the index whose keys are in [fromKey, toKey).
+     * @param fromKey  the lower bound (inclusive)
+     * @param toKey    the upper bound (exclusive)
+     * @return  the submap view
+     */
+    public SortedMap <KeyType, Long> subMap (KeyType fromKey, KeyType toKey)
+    {
+        return new SubMap (fromKey, true, toKey, false);
+    } // subMap
+
+    /***************************************************************************
+     * This inner class provides views of the keys of the index in an interval.
+     * Lookups and updates outside the interval are rejected.
+     */
+    private final class SubMap
+            extends AbstractMap <KeyType, Long>
+            implements SortedMap <KeyType, Long>
+    {
+        private final KeyType lo, hi;
+        private final boolean loIn, hiIn;
+
+        SubMap (KeyType _lo, boolean _loIn, KeyType _hi, boolean _hiIn)
+        {
+            if (_lo != null && _hi != null && _lo.compareTo (_hi) > 0)
+                throw new IllegalArgumentException ("inconsistent range");
+            lo   = _lo;
+            loIn = _loIn;
+            hi   = _hi;
+            hiIn = _hiIn;
+        } // constructor
+
+        private boolean inBounds (Object key)
+        {
+            KeyType k = (KeyType) key;
+            if (lo != null) { int c = k.compareTo (lo); if (c < 0 || (c == 0 && ! loIn)) return false; }
+            if (hi != null) { int c = k.compareTo (hi); if (c > 0 || (c == 0 && ! hiIn)) return false; }
+            return true;
+        } // inBounds
+
+        public Long get (Object key)              { return inBounds (key) ? DiskBpTree.this.get (key) : null; }
+        public boolean containsKey (Object key)   { return get (key) != null; }
+        public Long remove (Object key)           { return inBounds (key) ? DiskBpTree.this.remove (key) : null; }
+
+        public Long put (KeyType key, Long rid)
+        {
+            if ( ! inBounds (key)) throw new IllegalArgumentException ("key out of range");
+            return DiskBpTree.this.put (key, rid);
+        } // put
+
+        public Set <Map.Entry <KeyType, Long>> entrySet () { return entries (lo, loIn, hi, hiIn); }
+        public Comparator <? super KeyType> comparator ()   { return null; }
+
+        public KeyType firstKey ()
+        {
+            KeyType k = firstKeyInInterval (lo, loIn, hi, hiIn);
+            if (k == null) throw new NoSuchElementException ();
+            return k;
+        } // firstKey
+
+        public KeyType lastKey ()
+        {
+            KeyType k = lastKeyInInterval (lo, loIn, hi, hiIn);
+            if (k == null) throw new NoSuchElementException ();
+            return k;
+        } // lastKey
+
+        public SortedMap <KeyType, Long> headMap (KeyType toKey)                 { return sub (null, toKey); }
+        public SortedMap <KeyType, Long> tailMap (KeyType fromKey)               { return sub (fromKey, null); }
+        public SortedMap <KeyType, Long> subMap (KeyType fromKey, KeyType toKey) { return sub (fromKey, toKey); }
+
+        /***********************************************************************
+         * Narrow this view to [fromKey, toKey) (a null bound keeps this one's).
+         */
+        private SortedMap <KeyType, Long> sub (KeyType fromKey, KeyType toKey)
+        {
+            if ((fromKey != null && ! inBounds (fromKey)) ||
+                (toKey != null && ((hi != null && toKey.compareTo (hi) > 0) || (lo != null && toKey.compareTo (lo) < 0))))
+                throw new IllegalArgumentException ("key out of range");
+            return new SubMap ((fromKey == null) ? lo : fromKey, (fromKey == null) ? loIn : true,
+                               (toKey == null) ? hi : toKey, (toKey == null) ? hiIn : false);
+        } // sub
+    } // SubMap inner class
+
+    /***************************************************************************
+     * Create a temporary index of record ids by attribute value, for a secondary
+     * index on an attribute whose values may repeat.
+     * @param _name    the name of the index
+     * @param _domain  the domains of the indexed attributes
+     * @return  the new, empty index, viewed as a map from value to record ids
+     */
+    public static RidIndex ridIndex (String _name, Class [] _domain)
+    {
+        Class [] dom = Arrays.copyOf (_domain, _domain.length + 1);
+        dom [_domain.length] = Long.class;
+        return new RidIndex (temporary (_name, dom), null, null);
+    } // ridIndex
+
+    /***************************************************************************
+     * This nested class views an index whose keys are an attribute value followed
+     * by a record id as a map from each value (in order) to the record ids of
+     * the tuples having it.  The record id makes every key unique, so adding or
+     * removing one tuple's entry is a single put or remove, and the keys of a
+     * value are adjacent.  A view may be limited to the values in [lo, hi).
+     * Lists of record ids are built as they are read, so they are copies: use
+     * add and remove (not put) to update the index.
+     */
+    public static final class RidIndex
+            extends AbstractMap <KeyType, List <Long>>
+            implements SortedMap <KeyType, List <Long>>
+    {
+        private final DiskBpTree tree;
+        private final KeyType    lo, hi;                   // bounds on the values (null => none)
+
+        RidIndex (DiskBpTree _tree, KeyType _lo, KeyType _hi)
+        {
+            tree = _tree;
+            lo   = _lo;
+            hi   = _hi;
+        } // constructor
+
+        /***********************************************************************
+         * Return whether entries for the given value fit in the index (the value
+         * encoded, plus its record id, may take at most MAX_KEY bytes).
+         */
+        public boolean fits (KeyType value)
+        {
+            return bytes (value).length + 8 <= MAX_KEY;
+        } // fits
+
+        /***********************************************************************
+         * Add the record id of a tuple having the given value.
+         */
+        public void add (KeyType value, long rid)
+        {
+            tree.put (entry (value, rid), rid);
+        } // add
+
+        /***********************************************************************
+         * Remove the record id of a tuple having the given value.
+         */
+        public void remove (KeyType value, long rid)
+        {
+            tree.remove (entry (value, rid));
+        } // remove
+
+        /***********************************************************************
+         * Return the record ids of the tuples having the given value (null if
+         * none or the value is outside this view).
+         */
+        public List <Long> get (Object value)
+        {
+            KeyType v = (KeyType) value;
+            if ((lo != null && v.compareTo (lo) < 0) || (hi != null && v.compareTo (hi) >= 0)) return null;
+            List <Long> rids = new ArrayList <Long> ();
+            for (Map.Entry <KeyType, Long> e : tree.entries (entry (v, Long.MIN_VALUE), true, entry (v, Long.MAX_VALUE), true)) {
+                rids.add (e.getValue ());
+            } // for
+            return rids.isEmpty () ? null : rids;
+        } // get
+
+        public boolean containsKey (Object value) { return get (value) != null; }
+
+        /***********************************************************************
+         * Remove all the record ids of the given value.
+         */
+        public List <Long> remove (Object value)
+        {
+            List <Long> rids = get (value);
+            if (rids != null) for (long rid : rids) remove ((KeyType) value, rid);
+            return rids;
+        } // remove
+
+        /***********************************************************************
+         * Return a view of the (value, record ids) entries, in value order,
+         * grouping the adjacent keys of each value as the cursor reads them.
+         */
+        public Set <Map.Entry <KeyType, List <Long>>> entrySet ()
+        {
+            return new AbstractSet <Map.Entry <KeyType, List <Long>>> () {
+                public Iterator <Map.Entry <KeyType, List <Long>>> iterator ()
+                {
+                    final Iterator <Map.Entry <KeyType, Long>> it = cursor ();
+                    return new Iterator <Map.Entry <KeyType, List <Long>>> () {
+                        Map.Entry <KeyType, Long> ahead = it.hasNext () ? it.next () : null;
+
+                        public boolean hasNext ()
+                        {
+                            return ahead != null;
+                        } // hasNext
+
+                        public Map.Entry <KeyType, List <Long>> next ()
+                        {
+                            if (ahead == null) throw new NoSuchElementException ();
+                            NormalizedKey v    = value (ahead.getKey ());
+                            List <Long>   rids = new ArrayList <Long> ();
+                            do {
+                                rids.add (ahead.getValue ());
+                                ahead = it.hasNext () ? it.next () : null;
+                            } while (ahead != null && sameValue (ahead.getKey (), v));
+                            return new AbstractMap.SimpleImmutableEntry <KeyType, List <Long>> (v, rids);
+                        } // next
+                    };
+                } // iterator
+
+                public int size ()
+                {
+                    int n = 0;
+                    for (Iterator <?> i = iterator (); i.hasNext (); i.next ()) n++;
+                    return n;
+                } // size
+            };
+        } // entrySet
+
+        public boolean isEmpty () { return ! cursor ().hasNext (); }
+
+        public Comparator <? super KeyType> comparator () { return null; }
+
+        public KeyType firstKey ()
+        {
+            Iterator <Map.Entry <KeyType, Long>> it = cursor ();
+            if ( ! it.hasNext ()) throw new NoSuchElementException ();
+            return value (it.next ().getKey ());
+        } // firstKey
+
+        public KeyType lastKey ()
+        {
+            KeyType k = tree.lastKeyInInterval (bound (lo), true, bound (hi), false);
+            if (k == null) throw new NoSuchElementException ();
+            return value (k);
+        } // lastKey
+
+        public SortedMap <KeyType, List <Long>> headMap (KeyType toKey)                 { return sub (lo, toKey); }
+        public SortedMap <KeyType, List <Long>> tailMap (KeyType fromKey)               { return sub (fromKey, hi); }
+        public SortedMap <KeyType, List <Long>> subMap (KeyType fromKey, KeyType toKey) { return sub (fromKey, toKey); }
+
+        /***********************************************************************
+         * Return the view of the values in [fromKey, toKey), which must lie
+         * within this view's bounds.
+         */
+        private SortedMap <KeyType, List <Long>> sub (KeyType fromKey, KeyType toKey)
+        {
+            if ((fromKey != null && toKey != null && fromKey.compareTo (toKey) > 0) ||
+                (lo != null && (fromKey == null || fromKey.compareTo (lo) < 0)) ||
+                (hi != null && (toKey == null || toKey.compareTo (hi) > 0)))
+                throw new IllegalArgumentException ("key out of range");
+            return new RidIndex (tree, fromKey, toKey);
+        } // sub
+
+        /***********************************************************************
+         * Delete the index (see DiskBpTree.drop).
+         */
+        public void drop ()
+        {
+            tree.drop ();
+        } // drop
+
+        /***********************************************************************
+         * Return a cursor over the tree's entries for the values in this view.
+         */
+        private Iterator <Map.Entry <KeyType, Long>> cursor ()
+        {
+            return tree.entries (bound (lo), true, bound (hi), false).iterator ();
+        } // cursor
+
+        /***********************************************************************
+         * Return the smallest key of the given value (null for no bound).
+         */
+        private static KeyType bound (KeyType value)
+        {
+            return (value == null) ? null : entry (value, Long.MIN_VALUE);
+        } // bound
+
+        /***********************************************************************
+         * Return the key for the given value and record id: the value's
+         * encoding followed by the record id's.
+         */
+        private static NormalizedKey entry (KeyType value, long rid)
+        {
+            byte []       v   = bytes (value);
+            byte []       k   = Arrays.copyOf (v, v.length + 8);
+            Comparable [] key = new Comparable [value.size () + 1];
+            for (int j = 0; j < value.size (); j++) key [j] = value.get (j);
+            key [value.size ()] = rid;
+            long x = rid ^ Long.MIN_VALUE;
+            for (int i = k.length - 1; i >= v.length; i--, x >>>= 8) k [i] = (byte) x;
+            return new NormalizedKey (key, k);
+        } // entry
+
+        /***********************************************************************
+         * Return the value part of a key read from the tree.
+         */
+        private static NormalizedKey value (KeyType key)
+        {
+            byte []       k = ((NormalizedKey) key).bytes ();
+            Comparable [] v = new Comparable [key.size () - 1];
+            for (int j = 0; j < v.length; j++) v [j] = key.get (j);
+            return new NormalizedKey (v, Arrays.copyOf (k, k.length - 8));
+        } // value
+
+        /***********************************************************************
+         * Determine whether a key read from the tree has the given value.
+         */
+        private static boolean sameValue (KeyType key, NormalizedKey value)
+        {
+            byte [] k = ((NormalizedKey) key).bytes (), v = value.bytes ();
+            return k.length == v.length + 8 && Arrays.equals (k, 0, v.length, v, 0, v.length);
+        } // sameValue
+    } // RidIndex class
+
+    /***************************************************************************
+     * The main method is used for testing purposes only: it indexes random
+     * (String, Integer) keys with a small buffer pool, checks lookups and a
+     * range scan against a TreeMap, and reopens the index to check that it
+     * persists.
+     * @param args  the command-line arguments (args [0] gives number of keys)
+     */
+    public static void main (String [] args)
+    {
+        int      n   = (args.length == 1) ? Integer.valueOf (args [0]) : 500000;
+        Class [] dom = { String.class, Integer.class };
+        new File ("DiskBpTree_test" + EXT).delete ();
+
+        DiskBpTree              idx = new DiskBpTree ("DiskBpTree_test", dom, 256);   // 2 MB of frames
+        TreeMap <KeyType, Long> ref = new TreeMap <KeyType, Long> ();
+        Random                  rng = new Random (0);
+        long t0 = System.nanoTime ();
+        for (int i = 0; i < n; i++) {
+            KeyType k = new KeyType (new Comparable [] { "customer_" + rng.nextInt (n), i % 7 });
+            idx.put (k, (long) i);
+            ref.put (k, (long) i);
+        } // for
+        long t1 = System.nanoTime ();
+        out.println ("DiskBpTree: put " + n + " keys in " + (t1 - t0) / 1000000 + " ms: " + idx.size () + " keys, "
+                     + idx.pages () + " pages (" + idx.pages () * (long) PAGE_SIZE / (1 << 20) + " MB), height " + idx.height ());
+
+        int bad = 0;
+        idx.count = 0;
+        for (KeyType k : ref.keySet ()) if ( ! ref.get (k).equals (idx.get (k))) bad++;
+        out.println ("lookups: " + bad + " mismatches, " + idx.count / (double) ref.size () + " pages per lookup, " + idx.getBufferPool ());
+
+        KeyType lo = new KeyType (new Comparable [] { "customer_1", 0 }), hi = new KeyType (new Comparable [] { "customer_2", 0 });
+        List <Map.Entry <KeyType, Long>> a = new ArrayList <> (idx.subMap (lo, hi).entrySet ());
+        List <Map.Entry <KeyType, Long>> b = new ArrayList <> (ref.subMap (lo, hi).entrySet ());
+        out.println ("range scan: " + a.size () + " entries, matches TreeMap: " + a.toString ().equals (b.toString ()));
+
+        for (int i = 0; i < n / 2; i++) {
+            KeyType k = new KeyType (new Comparable [] { "customer_" + rng.nextInt (n), i % 7 });
+            if ( ! Objects.equals (idx.remove (k), ref.remove (k))) bad++;
+        } // for
+        idx.close ();
+
+        DiskBpTree again = new DiskBpTree ("DiskBpTree_test", dom);
+        boolean    same  = again.size () == ref.size () && again.firstKey ().equals (ref.firstKey ())
+                           && again.lastKey ().equals (ref.lastKey ());
+        for (KeyType k : ref.keySet ()) if ( ! ref.get (k).equals (again.get (k))) bad++;
+        out.println ("after removes and reopening: " + again.size () + " keys, first/last match: " + same + ", " + bad + " mismatches");
+        again.drop ();
+    } // main
+
+} // DiskBpTree class
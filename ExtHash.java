@@ -21,7 +21,7 @@ public class ExtHash <K, V>
 {
     /** The number of slots (for key-value pairs) per bucket.
      */
-    private static final int SLOTS = 4;
+    private static final int SLOTS = 16;
 
     /** The class for type K.
      */
@@ -39,15 +39,22 @@ public class ExtHash <K, V>
         int  nKeys;
         K [] key;
         V [] value;
-        //2^d = depth for some d
+        //The (spread) hash of each key, so probes and splits need not rehash
+        int [] hcode;
+        //Local depth: the number of low-order hash bits shared by its keys
         int depth;
-        @SuppressWarnings("unchecked")
         Bucket (int d)
+        {
+            this (d, SLOTS);
+        } // constructor
+        @SuppressWarnings("unchecked")
+        Bucket (int d, int slots)
         {
             nKeys = 0;
             depth = d;
-            key   = (K []) Array.newInstance (classK, SLOTS);
-            value = (V []) Array.newInstance (classV, SLOTS);
+            key   = (K []) Array.newInstance (classK, slots);
+            value = (V []) Array.newInstance (classV, slots);
+            hcode = new int [slots];
         } // constructor
         int getDepth(){
                return depth;
@@ -88,17 +95,22 @@ public class ExtHash <K, V>
      */
     private final List <Bucket> hTable;
 
-    /** The directory providing access paths to the buckets (buckets in logical oder)
+    /** The directory providing access paths to the buckets (buckets in logical oder),
+     *  indexed by the low-order D bits of the hash where D is the global depth
      */
-    private final List <Bucket> dir;
+    private Bucket [] dir;
 
-    /** The modulus for hashing (= 2^D) where D is the global depth
+    /** The global depth D (the directory has 2^D entries)
      */
-    private int mod;
+    private int depth;
 
-    /** The number of buckets
+    /** The largest global depth; a full bucket at this depth grows instead of splitting
      */
-    private int nBuckets;
+    private static final int MAX_DEPTH = 24;
+
+    /** The number of key-value pairs
+     */
+    private int nKeys;
 
     /** Counter for the number buckets accessed (for performance testing).
      */
@@ -110,18 +122,19 @@ public class ExtHash <K, V>
      * @param classV    the class for keys (V)
      * @param initSize  the initial number of buckets (a power of 2, e.g., 4)
      */
+    @SuppressWarnings("unchecked")
     public ExtHash (Class <K> _classK, Class <V> _classV, int initSize)
     {
         classK = _classK;
         classV = _classV;
         hTable = new ArrayList <Bucket> ();   // for bucket storage
-        dir    = new ArrayList <Bucket> ();   // for bucket access
-        mod    = nBuckets = initSize;
+        depth  = 32 - Integer.numberOfLeadingZeros (Math.max (initSize, 1) - 1);
+        dir    = (Bucket []) Array.newInstance (Bucket.class, 1 << depth);   // for bucket access
         //Initialize empty buckets into directory and hTable
-        for(int i = 0; i < initSize; i++){
-        	Bucket b = new Bucket(mod);
+        for(int i = 0; i < dir.length; i++){
+        	Bucket b = new Bucket(depth);
         	hTable.add(b);
-        	dir.add(b);
+        	dir[i] = b;
         }
     } // ExtHash
 
@@ -150,24 +163,19 @@ public class ExtHash <K, V>
      */
     public V get (Object key)
     {
-        int    i = Math.abs( h (key) );
-        Bucket b = dir.get (i);
+        int    hk = hash (key);
+        Bucket b  = dir [h (hk)];
         count++;
-        //Return null if key is not in bucket
-        V ret = null;
         for(int j = 0; j < b.nKeys; j++){
-        	//Search bucket for key
-        	if(b.key[j].toString().equals(key.toString())){
-        		//If you find the key, set ret;
-        		ret = b.value[j];
-        		j = b.nKeys; //break
-        	}
+        	//Search bucket for key (comparing hashes first)
+        	if(b.hcode[j] == hk && key.equals(b.key[j])) return b.value[j];
         }
-        return ret;
+        return null;
     } // get
 
     /***************************************************************************
-     * Put the key-value pair in the hash table.
+     * Put the key-value pair in the hash table.  A full bucket is split (more
+     * than once if all its keys land on the same side) until there is room.
      * @param key    the key to insert
      * @param value  the value to insert
      * @return  null (not the previous value)
@@ -175,123 +183,138 @@ public class ExtHash <K, V>
      */
     public V put (K key, V value)
     {
-        int    i = Math.abs( h (key) );
-        Bucket b = dir.get (i);
+        int    hk = hash (key);
+        Bucket b  = dir [h (hk)];
         count++;
         //If the key is already in the bucket
         //We just want to replace it with the new value
         for(int j = 0; j < b.nKeys; j++){
-        	if(b.key[j].toString().equals( key.toString() ) ){
+        	if(b.hcode[j] == hk && key.equals(b.key[j])){
         		b.value[j] = value;
         		return null;
         	}
         }
-        //Else if there is room, just put the key at the end of the bucket
-        if(b.nKeys < SLOTS){
-        	b.key[b.nKeys] = key;
-        	b.value[b.nKeys] = value;
-        	b.nKeys++;
-        	return null;
-        }
-        //Else there is no room in the bucket, so you need to split the bucket to make room
-        else{
-        	split(b, key, value);
-        	return null;
-        }
+        //Split the bucket until there is room for the key
+        while (b.nKeys == b.key.length) {
+            if (b.depth == MAX_DEPTH || sameHash (b, hk)) { grow (b); break; }
+            split (b);
+            b = dir [h (hk)];
+        } // while
+        b.hcode[b.nKeys] = hk;
+        b.key[b.nKeys] = key;
+        b.value[b.nKeys] = value;
+        b.nKeys++;
+        nKeys++;
+        return null;
     } // put
-    /**
-    * Takes in a bucket. Splits the bucket to make room for a new key-value pair.
-    * If the bucket is already at maximum depth, the hashfunction will be increased.
-    * 
-    * @author Ryan Gell
-    */
-    private void split(Bucket b, K key, V value){
-    	    int depth; 
-    	    //If the bucket is at maximum depth
-    	    if(b.getDepth() == mod){
-    	    	    int size = dir.size();
-    	    	    //Double the directory
-    	    	    for(int i = 0; i < size; i++){
-    	    	    	    dir.add(dir.get(i));
-    	    	    }
-    	    	    //Find where the first bucket will be
-    	    	    int i = h(key);
-    	    	    //Where the second bucket will be
-    	    	    int j = i+mod;
-    	    	    //double the mod
-    	    	    mod = mod*2;
-    	    	    //Create new buckets
-    	    	    Bucket buck1 = new Bucket(mod);
-    	    	    Bucket buck2 = new Bucket(mod);
-    	    	    nBuckets++;
-    	    	    //Delete the old bucket from hTable
-    	    	    for(int k = 0; k < hTable.size(); k++){
-    	    	    	    count++;
-    	    	    	    if(hTable.get(k).equals(b)){hTable.remove(k); k = hTable.size();}
-    	    	    }
-    	    	    //Remove the old buckets
-    	    	    dir.remove(i);
-    	    	    //Add the new one
-    	    	    dir.add(i, buck1);
-    	    	    dir.remove(j);
-    	    	    dir.add(j, buck2);
-    	    	    hTable.add(buck1);//Into storage
-    	    	    hTable.add(buck2);
-    	    }
-    	    else{
-    	    	    //Get current depth
-    	    	    int d = b.getDepth();
-    	    	    int i = 0;
-    	    	    //Find the first instance of this bucket
-    	    	    for(int l = 0; l < dir.size(); l++){
-    	    	    	    count++;
-    	    	    	    if(b.equals(dir.get(l))){
-    	    	    	       i = l;
-    	    	    	       l = dir.size();
-    	    	    	    }
-    	    	    }
-    	    	    //Create buckets at new depth
-    	    	    Bucket buck1 = new Bucket(d*2);
-    	    	    Bucket buck2 = new Bucket(d*2);
-    	    	    int k = 0;
-    	    	    //Delete old bucket
-    	    	    for(int l = 0; l < hTable.size(); l++){
-    	    	    	    count++;
-    	    	    	    if(hTable.get(l).equals(b)){hTable.remove(l); l = hTable.size();}
-    	    	    }
-    	    	    //Add new ones
-    	    	    hTable.add(buck1);
-    	    	    hTable.add(buck2);
-    	    	    while(i < mod){
-    	    	    	    //Place the first bucket every other time
-    	    	    	    if(k % 2 == 0){
-    	    	    	    	    dir.remove(i);
-    	    	    	    	    dir.add(i, buck1);
-    	    	    	    }
-    	    	    	    //Place the second bucket
-    	    	    	    else{
-    	    	    	    	    dir.remove(i);
-    	    	    	    	    dir.add(i, buck2);
-    	    	    	    }
-    	    	    	    k++;
-    	    	    	    //Increment the position by the original depth
-    	    	    	    i = i + d;  	    
-    	    	    }
-    	    }
-    	    //Place all the key-value pairs in the expanded hashtable.
-    	    //Note this may cause another split
-    	    put(key, value);
-    	    for(int k = 0; k < b.nKeys; k++){
-    	    	    put(b.key[k], b.value[k]);
-    	    }
-    }
+
+    /***************************************************************************
+     * Remove the key (and its value) from the hash table.  The last pair in the
+     * bucket fills the hole; buckets are not merged (or the directory halved)
+     * as they empty.
+     * @param key  the key to remove
+     * @return  the value that was associated with the key (null if none)
+     */
+    public V remove (Object key)
+    {
+        int    hk = hash (key);
+        Bucket b  = dir [h (hk)];
+        count++;
+        for (int j = 0; j < b.nKeys; j++) {
+            if (b.hcode [j] == hk && key.equals (b.key [j])) {
+                V   value = b.value [j];
+                int last  = --b.nKeys;
+                b.hcode [j]    = b.hcode [last];
+                b.key [j]      = b.key [last];
+                b.value [j]    = b.value [last];
+                b.key [last]   = null;
+                b.value [last] = null;
+                nKeys--;
+                return value;
+            } // if
+        } // for
+        return null;
+    } // remove
+
     /***************************************************************************
-     * Return the size (SLOTS * number of buckets) of the hash table. 
+     * Split bucket b on hash bit number b.depth: the keys with that bit set move
+     * to a new bucket, and the directory entries referencing b with that bit set
+     * are redirected to it.  The directory is doubled first if b's local depth
+     * equals the global depth.  The cost is proportional to the bucket (plus the
+     * directory entries referencing it), except for the occasional doubling.
+     * @param b  the full bucket to split
+     */
+    @SuppressWarnings("unchecked")
+    private void split (Bucket b)
+    {
+        if (b.depth == depth) {
+            //Double the directory: entry i + 2^D initially shares bucket i
+            Bucket [] d2 = (Bucket []) Array.newInstance (Bucket.class, 2 * dir.length);
+            System.arraycopy (dir, 0, d2, 0, dir.length);
+            System.arraycopy (dir, 0, d2, dir.length, dir.length);
+            dir = d2;
+            depth++;
+        } // if
+
+        int    bit  = 1 << b.depth;
+        int    low  = b.hcode [0] & (bit - 1);   // the hash bits all of b's keys share
+        Bucket buck = new Bucket (++b.depth, b.key.length);   // b may have grown, so all its keys may move
+        hTable.add (buck);
+
+        //Move the keys whose new bit is set
+        int n = 0;
+        for (int j = 0; j < b.nKeys; j++) {
+            if ((b.hcode [j] & bit) != 0) {
+                buck.hcode [buck.nKeys] = b.hcode [j];
+                buck.key [buck.nKeys]   = b.key [j];
+                buck.value [buck.nKeys] = b.value [j];
+                buck.nKeys++;
+            } else {
+                b.hcode [n] = b.hcode [j];
+                b.key [n]   = b.key [j];
+                b.value [n] = b.value [j];
+                n++;
+            } // if
+        } // for
+        for (int j = n; j < b.nKeys; j++) { b.key [j] = null; b.value [j] = null; }
+        b.nKeys = n;
+
+        //Redirect the directory entries for the new bucket
+        for (int i = low | bit; i < dir.length; i += 2 * bit) dir [i] = buck;
+    } // split
+
+    /***************************************************************************
+     * Determine whether every key in bucket b has the same hash as the key, in
+     * which case no number of splits would make room for it.
+     * @param b   the full bucket
+     * @param hk  the hash of the key to insert
+     * @return  whether all the hashes are equal
+     */
+    private boolean sameHash (Bucket b, int hk)
+    {
+        for (int j = 0; j < b.nKeys; j++) if (b.hcode [j] != hk) return false;
+        return true;
+    } // sameHash
+
+    /***************************************************************************
+     * Give a full bucket more slots, when splitting it would not separate its
+     * keys (their hashes are equal or agree in all MAX_DEPTH bits).
+     * @param b  the full bucket to grow
+     */
+    private void grow (Bucket b)
+    {
+        b.key   = Arrays.copyOf (b.key, 2 * b.key.length);
+        b.value = Arrays.copyOf (b.value, 2 * b.value.length);
+        b.hcode = Arrays.copyOf (b.hcode, 2 * b.hcode.length);
+    } // grow
+
+    /***************************************************************************
+     * Return the number of key-value pairs in the hash table.
      * @return  the size of the hash table
      */
     public int size ()
     {
-        return SLOTS * nBuckets;
+        return nKeys;
     } // size
 
     /***************************************************************************
@@ -301,10 +324,10 @@ public class ExtHash <K, V>
     public void print(){
         out.println ("Hash Table (Extendable Hashing)");
         out.println ("-------------------------------------------");
-        for(int i = 0; i < dir.size(); i++){
-        	Bucket b = dir.get(i);
+        for(int i = 0; i < dir.length; i++){
+        	Bucket b = dir[i];
         	count++;
-        	System.out.println("Bucket " + i + ":" + " Depth:" + b.getDepth());
+        	System.out.println("Bucket " + i + ":" + " Depth:" + b.getDepth() + "/" + depth);
         	for(int j = 0; j < b.nKeys; j++){
         		System.out.println("Key:" + b.key[j] + " value:"+b.value[j] );
         	}
@@ -313,24 +336,91 @@ public class ExtHash <K, V>
     } // print
 
     /***************************************************************************
-     * Hash the key using the hash function.
-     * @param key  the key to hash
+     * Map the key's hash to the directory using its low-order D bits.
+     * @param hk  the hash of the key (see hash)
      * @return  the location of the directory entry referencing the bucket
      */
-    private int h (Object key)
+    private int h (int hk)
     {
-        return key.hashCode () % mod;
+        return hk & (dir.length - 1);
     } // h
 
+    /***************************************************************************
+     * Return the hash of the key whose low-order bits index the directory.  The
+     * key's hashCode is spread (MurmurHash3's 32-bit finalizer) so that every
+     * bit of it affects the low-order bits, e.g., Integer keys that are
+     * multiples of a power of 2 or KeyType's polynomial sums.
+     * @param key  the key to hash
+     * @return  the hash code
+     */
+    private static int hash (Object key)
+    {
+        int h = key.hashCode ();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    } // hash
+
+    /***************************************************************************
+     * Time point lookups of composite (title, year) keys, the probes a join or
+     * select makes against a primary index.  Each probe uses a fresh KeyType,
+     * as Table does.  For comparison, also time one key match done the old way
+     * (comparing toString's) and the new way (equals), and the same lookups in
+     * a java.util.HashMap.
+     * @param nKeys  the number of keys to insert and look up
+     */
+    private static void benchmark (int nKeys)
+    {
+        KeyType [] keys  = new KeyType [nKeys];
+        KeyType [] probe = new KeyType [nKeys];
+        for (int i = 0; i < nKeys; i++) {
+            keys [i]  = new KeyType (new Comparable [] { "Movie_" + i, 1900 + i % 120 });
+            probe [i] = new KeyType (new Comparable [] { "Movie_" + i, 1900 + i % 120 });
+        } // for
+        ExtHash <KeyType, Integer> ht = new ExtHash <> (KeyType.class, Integer.class, 16);
+        HashMap <KeyType, Integer> hm = new HashMap <> ();
+        long t0 = System.nanoTime ();
+        for (int i = 0; i < nKeys; i++) ht.put (keys [i], i);
+        long t1 = System.nanoTime ();
+        for (int i = 0; i < nKeys; i++) hm.put (keys [i], i);
+
+        long found = 0, tExt = 0, tMap = 0, tStr = 0, tEq = 0;
+        for (int rep = 0; rep < 5; rep++) {                    // the first rounds warm up the JIT
+            long s = System.nanoTime ();
+            for (int i = 0; i < nKeys; i++) if (ht.get (probe [i]) != null) found++;
+            tExt = System.nanoTime () - s;
+            s = System.nanoTime ();
+            for (int i = 0; i < nKeys; i++) if (hm.get (probe [i]) != null) found++;
+            tMap = System.nanoTime () - s;
+            s = System.nanoTime ();
+            for (int i = 0; i < nKeys; i++) if (keys [i].toString ().equals (probe [i].toString ())) found++;
+            tStr = System.nanoTime () - s;
+            s = System.nanoTime ();
+            for (int i = 0; i < nKeys; i++) if (keys [i].equals (probe [i])) found++;
+            tEq = System.nanoTime () - s;
+        } // for
+
+        out.println ("ExtHash benchmark: " + nKeys + " KeyType (String, Integer) keys, " + found + " hits");
+        out.println ("insert                 " + (t1 - t0) / nKeys + " ns/key");
+        out.println ("ExtHash.get            " + tExt / nKeys + " ns/lookup");
+        out.println ("HashMap.get            " + tMap / nKeys + " ns/lookup");
+        out.println ("key match by toString  " + tStr / nKeys + " ns/compare (old)");
+        out.println ("key match by equals    " + tEq / nKeys + " ns/compare");
+    } // benchmark
+
     /***************************************************************************
      * The main method used for testing.
-     * @param  the command-line arguments (args [0] gives number of keys to insert)
+     * @param  the command-line arguments (args [0] gives number of keys to insert,
+     *         args [1] = "bench" runs the lookup benchmark instead)
      */
     public static void main (String [] args)
     {                                       
         ExtHash <Integer, Integer> ht = new ExtHash <Integer, Integer> (Integer.class, Integer.class, 2);
         int nKeys = 30;
-        if (args.length == 1) nKeys = Integer.valueOf (args [0]);
+        if (args.length >= 1) nKeys = Integer.valueOf (args [0]);
+        if (args.length == 2 && args [1].equals ("bench")) { benchmark (nKeys); return; }
         for (int i = 1; i < nKeys; i += 1) { ht.put (i, i * i);}
         ht.print ();
         for (int i = 0; i < nKeys; i++) {
@@ -338,7 +428,18 @@ public class ExtHash <K, V>
         } // for
         out.println ("-------------------------------------------");
         out.println ("Average number of buckets accessed = " + ht.count / (double) nKeys);
+
+        //Colliding keys: 32 Strings with one hashCode grow a bucket, which must still split later
+        ExtHash <String, Integer> hc = new ExtHash <String, Integer> (String.class, Integer.class, 2);
+        int bad = 0;
+        for (int i = 0; i < 32; i++) {
+            StringBuilder sb = new StringBuilder ();
+            for (int j = 4; j >= 0; j--) sb.append (((i >> j) & 1) == 0 ? "Aa" : "BB");
+            hc.put (sb.toString (), i);
+        } // for
+        for (int i = 0; i < 200; i++) hc.put ("x" + i, i);
+        for (int i = 0; i < 200; i++) if (hc.get ("x" + i) != i) bad++;
+        out.println ("colliding keys: size = " + hc.size () + " (expect 232), " + bad + " mismatches");
     } // main
 
 } // ExtHash class
-
@@ -5,22 +5,66 @@
  */
 
 import java.io.*;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import static java.lang.System.out;
 import java.util.*;
 
 /*******************************************************************************
  * This class allows data tuples/tuples (e.g., those making up a relational table)
- * to be stored in a random access file.  This implementation requires that each
- * tuple be packed into a fixed length byte array.
+ * to be stored in a random access file.  Each tuple is packed into a variable
+ * length record kept in a slotted page: a slot table at the front of the page
+ * locates the records, which fill the page from its end.  Strings too long to
+ * keep in the record are written to chains of overflow pages.  Pages are
+ * accessed either through a buffer pool, so the file is read and written a whole
+ * page at a time and hot pages stay in memory, or (in mapped mode) directly
+ * through memory-mapped chunks of the file.  Page 0 is a header recording the
+ * schema fingerprint, page count and record count, so that reopening the file
+ * recovers the records stored in it.
+ * <p>
+ * A record is identified by its record id (rid), combining its page and slot
+ * numbers, and the list keeps the rids of its records in order.
  */
 public class FileList
        extends AbstractList <Comparable []>
-       implements List <Comparable []>, RandomAccess
+       implements List <Comparable []>, RandomAccess, Flushable
 {
     /** File extension for data files.
      */
     private static final String EXT = ".dat";
 
+    /** The size of a page in bytes.
+     */
+    public static final int PAGE_SIZE = 8192;
+
+    /** The number of pages mapped at a time in mapped mode (the mapping grows
+     *  by one such chunk whenever appends run past its end).
+     */
+    private static final int CHUNK_PAGES = 2048;
+
+    /** Magic number identifying a data file header.
+     */
+    private static final int MAGIC = 0x46696c4c;
+
+    /** Version of the data file format.
+     */
+    private static final int VERSION = 2;
+
+    /** Page types.
+     */
+    private static final short DATA = 1, OVERFLOW = 2;
+
+    /** Size of the header of a data page (type, number of slots, start of the
+     *  records) and of each entry (offset, length) in its slot table.
+     */
+    private static final int PAGE_HEADER = 8, SLOT_SIZE = 4;
+
+    /** Size of the header of an overflow page (type, next page, bytes used).
+     */
+    private static final int OVERFLOW_HEADER = 12;
+
     /** The random access file that holds the tuples.
      */
     private RandomAccessFile file;
@@ -29,84 +73,341 @@ public class FileList
      */
     private final Table table;
 
-    /** The number bytes required to store a "packed tuple"/record.
+    /** The size of a page in bytes.
+     */
+    private final int pageSize = PAGE_SIZE;
+
+    /** The buffer pool caching the pages of the file (null in mapped mode).
+     */
+    private BufferPool pool;
+
+    /** The memory-mapped chunks of the file (null unless in mapped mode).
+     */
+    private List <MappedByteBuffer> chunk;
+
+    /** The overflow pages of this file, where long Strings are kept.
      */
-    private final int recordSize;
+    private final TupleCodec.Overflow spill = new TupleCodec.Overflow () {
+        public int write (byte [] value)           { return writeOverflow (value); }
+        public byte [] read (int page, int length) { return readOverflow (page, length); }
+    };
+
+    /** The record ids of the tuples, in list order.
+     */
+    private long [] rid = new long [64];
 
     /** Counter for the number of tuples in this list.
      */
     private int nRecords = 0;
 
+    /** The number of pages in the file (including the header page).
+     */
+    private int nPages = 1;
+
+    /** The data page new records are added to (-1 if there is none yet).
+     */
+    private int tailPage = -1;
+
+    /** Removes the file of a temporary list (null unless temporary).
+     */
+    private Cleaner.Cleanable remover;
+
+    /***************************************************************************
+     * Construct a FileList.
+     * @param _table  the table it is used to store
+     */
+    public FileList (Table _table)
+    {
+        this (_table, BufferPool.DEFAULT_FRAMES);
+    } // constructor
+
+    /***************************************************************************
+     * Construct a FileList whose buffer pool holds the given number of pages.
+     * @param _table   the table it is used to store
+     * @param nFrames  the number of page frames in the buffer pool
+     */
+    public FileList (Table _table, int nFrames)
+    {
+        this (_table, nFrames, false);
+    } // constructor
+
+    /***************************************************************************
+     * Construct a FileList that either uses a buffer pool or maps the file into
+     * memory.  Mapped mode unpacks records straight from the mapping without
+     * copying pages, which suits scan-heavy tables.
+     * @param _table  the table it is used to store
+     * @param mapped  whether to use memory-mapped access
+     */
+    public FileList (Table _table, boolean mapped)
+    {
+        this (_table, BufferPool.DEFAULT_FRAMES, mapped);
+    } // constructor
+
     /***************************************************************************
      * Construct a FileList.
-     * @param _table       the name of list
-     * @param _recordSize  the size of tuple in bytes.
+     * @param _table   the table it is used to store
+     * @param nFrames  the number of page frames in the buffer pool
+     * @param mapped   whether to use memory-mapped access
+     */
+    private FileList (Table _table, int nFrames, boolean mapped)
+    {
+        this (_table, nFrames, mapped, false);
+    } // constructor
+
+    /***************************************************************************
+     * Construct a FileList, which if temporary starts out empty (any existing
+     * file is truncated) and has its file deleted once it is dropped or becomes
+     * unreachable.
+     * @param _table   the table it is used to store
+     * @param nFrames  the number of page frames in the buffer pool
+     * @param mapped   whether to use memory-mapped access
+     * @param temp     whether the list is temporary
      */
-    public FileList (Table _table, int _recordSize)
+    private FileList (Table _table, int nFrames, boolean mapped, boolean temp)
     {
-        table      = _table;
-        recordSize = _recordSize;
+        table = _table;
+        String name = table.getName () + EXT;
 
         try {
-            file = new RandomAccessFile (table.getName () + EXT, "rw");
-        } catch (FileNotFoundException ex) {
+            file = new RandomAccessFile (name, "rw");
+            if (temp) file.setLength (0);
+            else      recover ();
+            if (mapped) chunk = new ArrayList <MappedByteBuffer> ();
+            else        pool  = new BufferPool (file, pageSize, nFrames);
+            if ( ! temp) {
+                if (file.length () == 0) flush ();                 // a new file gets its header at once
+                else                     loadRids ();
+            } // if
+        } catch (IOException ex) {
             file = null;
             out.println ("FileList.constructor: unable to open - " + ex);
         } // try
+
+        if (temp && file != null) remover = OpenFiles.temporary (this, file, name);
+        else if ( ! temp)         OpenFiles.add (this);
     } // constructor
 
     /***************************************************************************
-     * Add a new tuple into the file list by packing it into a record and writing
-     * this record to the random access file.  Write the record either at the
-     * end-of-file or into a empty slot.
+     * Construct a temporary FileList (e.g., for a query result, sorted run or
+     * join partition).  It is not flushed at shutdown and its file is deleted
+     * when it is dropped or garbage collected.
+     * @param _table  the table it is used to store
+     * @return  the new, empty list
+     */
+    public static FileList temporary (Table _table)
+    {
+        return new FileList (_table, BufferPool.DEFAULT_FRAMES, false, true);
+    } // temporary
+
+    /***************************************************************************
+     * Check the file header and size the record ids for the record count it
+     * gives.  The header is only rewritten on flush/close, while pages evicted
+     * from the buffer pool reach the file at any time, so after a crash its
+     * counts may be stale: the count only sizes the rids (which loadRids
+     * rebuilds), and the page count is taken from the file's length.  A file
+     * written for a different schema or file format (or not written by
+     * FileList) is not overwritten: it is renamed (with a ".mismatch-<time>"
+     * suffix) and the list starts out empty in a new file.
+     */
+    private void recover () throws IOException
+    {
+        if (file.length () == 0) return;
+
+        if (file.length () >= pageSize) {
+            file.seek (0);
+            if (file.readInt () == MAGIC && file.readInt () == VERSION &&
+                file.readLong () == table.fingerprint ()) {
+                nPages = (int) ((file.length () + pageSize - 1) / pageSize);
+                file.readInt ();                                   // page count as of the last flush
+                int n  = file.readInt ();
+                if (n > 64) rid = new long [(int) Math.min (n, (long) (nPages - 1) * (pageSize / SLOT_SIZE))];
+                return;
+            } // if
+        } // if
+
+        String name  = table.getName () + EXT;
+        String aside = name + ".mismatch-" + System.currentTimeMillis ();
+        file.close ();
+        if ( ! new File (name).renameTo (new File (aside))) {
+            throw new IOException (name + " does not match the schema and cannot be moved aside");
+        } // if
+        out.println ("FileList.recover: " + name + " does not match the schema - moved it to " + aside);
+        file = new RandomAccessFile (name, "rw");
+    } // recover
+
+    /***************************************************************************
+     * Rebuild the record ids from the slot tables of the data pages.  Trailing
+     * pages never written (e.g., the rest of a mapped chunk) are not counted,
+     * so new pages are appended after the last page in use.
+     */
+    private void loadRids ()
+    {
+        int used = 1;
+        for (int p = 1; p < nPages; p++) {
+            ByteBuffer buf  = pin (p);
+            short      type = buf.getShort (0);
+            if (type == DATA) {
+                int nSlots = buf.getShort (2);
+                for (int s = 0; s < nSlots; s++) {
+                    if (buf.getShort (PAGE_HEADER + s * SLOT_SIZE) != 0) addRid (p, s);
+                } // for
+                tailPage = p;
+            } // if
+            if (type != 0) used = p + 1;
+            unpin (p, false);
+        } // for
+        nPages = used;
+    } // loadRids
+
+    /***************************************************************************
+     * Add a new tuple into the file list by packing it as a record directly into
+     * the free space of the last data page (starting a new page if it does not
+     * fit).  The page is written to the random access file as a whole when it
+     * is evicted from the buffer pool (or on flush/close).
      * @param tuple  the tuple to add
      * @return  whether the addition succeeded
      * Minh Pham
      */
     public boolean add (Comparable [] tuple)
     {
-        byte [] record = table.pack (tuple);
-
-        if (record.length != recordSize) {
-            out.println ("FileList.add: wrong record size " + record.length);
+        int len = table.tupleSize (tuple, spill);
+        if (PAGE_HEADER + SLOT_SIZE + len > pageSize) {
+            out.println ("FileList.add: record of " + len + " bytes does not fit in a page");
             return false;
         } // if
 
-        for(int i =0; i<recordSize; i++){
-               try {
-				file.write(record[i]);
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-        }
-        
-        nRecords++;
+        if (tailPage < 0 || freeSpace (tailPage) < SLOT_SIZE + len) tailPage = newDataPage ();
+
+        int        page = tailPage;
+        ByteBuffer buf  = pin (page);
+        try {
+            int slot = buf.getShort (2);
+            int off  = (buf.getShort (4) & 0xffff) - len;
+            table.pack (tuple, buf, off, spill);
+            buf.putShort (PAGE_HEADER + slot * SLOT_SIZE, (short) off)
+               .putShort (PAGE_HEADER + slot * SLOT_SIZE + 2, (short) len)
+               .putShort (2, (short) (slot + 1))
+               .putShort (4, (short) off);
+            addRid (page, slot);
+        } finally {
+            unpin (page, true);
+        } // try
 
         return true;
     } // add
 
     /***************************************************************************
-     * Get the ith tuple by seeking to the correct file position and reading the
-     * record.
+     * Get the ith tuple by pinning the page holding it and unpacking the record
+     * its slot points to.  The file is only read if the page is not cached (or
+     * mapped).
      * @param i  the index of the tuple to get
      * @return  the ith tuple
      * @author Zachary Freeland
      */
     public Comparable [] get (int i)
     {
-        byte [] record = new byte [recordSize];
-
-	try {
-	    file.seek(recordSize*i);
-	    file.readFully(record); //read recordSize bytes into record byte[] from file starting at offset recordSize*i
-	} catch (IOException e) {
-	    out.println ("Filelist.get failed to read - "+e);
-	}
+        if (i < 0 || i >= nRecords) throw new IndexOutOfBoundsException ("FileList.get: " + i);
 
-        return table.unpack (record);
+        return fetch (rid [i]);
     } // get
 
+    /***************************************************************************
+     * Return the record id of the ith tuple, which locates the tuple's record
+     * (page and slot) and so can be stored in indexes.
+     * @param i  the index of the tuple
+     * @return  the record id of the ith tuple
+     */
+    public long getRid (int i)
+    {
+        if (i < 0 || i >= nRecords) throw new IndexOutOfBoundsException ("FileList.getRid: " + i);
+
+        return rid [i];
+    } // getRid
+
+    /***************************************************************************
+     * Get the tuple with the given record id by pinning its page and unpacking
+     * the record its slot points to.
+     * @param rid  the record id of the tuple
+     * @return  the tuple
+     */
+    public Comparable [] fetch (long rid)
+    {
+        int page = (int) (rid >>> 16);
+        int slot = (int) rid & 0xffff;
+
+        ByteBuffer    buf = pin (page);
+        Comparable [] tup = table.unpack (buf, buf.getShort (PAGE_HEADER + slot * SLOT_SIZE) & 0xffff, spill);
+        unpin (page, false);
+
+        return tup;
+    } // fetch
+
+    /***************************************************************************
+     * Delete the records with the given record ids by zeroing their slots (a
+     * slot with offset 0 is free, so reopening the file skips it).  The list of
+     * rids, being in rid order, is compacted in a single pass that copies the
+     * runs between deleted records.  The space the records took in their pages
+     * is not reclaimed.
+     * @param rids  the record ids of the records to delete
+     * @return  the number of records deleted
+     */
+    public int delete (long [] rids)
+    {
+        long [] del = rids.clone ();
+        Arrays.sort (del);
+
+        int n = 0, from = 0, to = 0;
+        for (long r : del) {
+            int i = Arrays.binarySearch (rid, from, nRecords, r);
+            if (i < 0) continue;                                   // not (or no longer) in the list
+
+            int        page = (int) (r >>> 16);
+            int        slot = (int) r & 0xffff;
+            ByteBuffer buf  = pin (page);
+            buf.putShort (PAGE_HEADER + slot * SLOT_SIZE, (short) 0)
+               .putShort (PAGE_HEADER + slot * SLOT_SIZE + 2, (short) 0);
+            unpin (page, true);
+
+            System.arraycopy (rid, from, rid, to, i - from);
+            to  += i - from;
+            from = i + 1;
+            n++;
+        } // for
+        System.arraycopy (rid, from, rid, to, nRecords - from);
+        nRecords -= n;
+        return n;
+    } // delete
+
+    /***************************************************************************
+     * Return an iterator that scans the list sequentially.  In mapped mode the
+     * current page's buffer is reused for all of its records.
+     * @return  a sequential iterator over the tuples
+     */
+    public Iterator <Comparable []> iterator ()
+    {
+        if (chunk == null) return super.iterator ();
+
+        return new Iterator <Comparable []> () {
+            int        i    = 0;
+            int        page = -1;
+            ByteBuffer buf  = null;
+
+            public boolean hasNext ()
+            {
+                return i < nRecords;
+            } // hasNext
+
+            public Comparable [] next ()
+            {
+                if (i >= nRecords) throw new NoSuchElementException ();
+                int p    = (int) (rid [i] >>> 16);
+                int slot = (int) rid [i++] & 0xffff;
+                if (p != page) { buf = pin (p); page = p; }
+                return table.unpack (buf, buf.getShort (PAGE_HEADER + slot * SLOT_SIZE) & 0xffff, spill);
+            } // next
+        };
+    } // iterator
+
     /***************************************************************************
      * Return the size of the file list in terms of the number of tuples/records.
      * @return  the number of tuples
@@ -117,16 +418,203 @@ public class FileList
     } // size
 
     /***************************************************************************
-     * Close the file.
+     * Return the buffer pool caching this list's pages (e.g., for its hit/miss
+     * counters).
+     * @return  the buffer pool (null in mapped mode)
+     */
+    public BufferPool getBufferPool ()
+    {
+        return pool;
+    } // getBufferPool
+
+    /***************************************************************************
+     * Remove all the tuples, truncating the file.
+     */
+    public void clear ()
+    {
+        nRecords = 0;
+        nPages   = 1;
+        tailPage = -1;
+        if (pool != null) pool.discard ();
+        if (chunk != null) chunk.clear ();
+        try {
+            file.setLength (0);
+        } catch (IOException ex) {
+            out.println ("FileList.clear: unable to truncate - " + ex);
+        } // try
+        if (remover == null) flush ();
+    } // clear
+
+    /***************************************************************************
+     * Write the header and all modified pages to the file.
+     */
+    public void flush ()
+    {
+        if (file == null) return;
+
+        ByteBuffer header = pin (0);
+        header.putInt (0, MAGIC).putInt (4, VERSION).putLong (8, table.fingerprint ())
+              .putInt (16, nPages).putInt (20, nRecords);
+        unpin (0, true);
+
+        if (pool != null) pool.flush ();
+        if (chunk != null) for (MappedByteBuffer c : chunk) c.force ();
+    } // flush
+
+    /***************************************************************************
+     * Close the file (after flushing any buffered records).  In mapped mode the
+     * file is trimmed back to the pages actually used.
      */
     public void close ()
     {
+        flush ();
+        OpenFiles.remove (this);
         try {
+            if (chunk != null) {
+                chunk.clear ();
+                file.setLength ((long) nPages * pageSize);
+            } // if
             file.close ();
         } catch (IOException ex) {
             out.println ("FileList.close: unable to close - " + ex);
         } // try
     } // close
 
+    /***************************************************************************
+     * Close the file without writing anything further and delete it (e.g., for
+     * temporary tables such as join partitions).
+     */
+    public void drop ()
+    {
+        OpenFiles.remove (this);
+        nRecords = 0;
+        if (pool != null) pool.discard ();
+        if (chunk != null) chunk.clear ();
+        if (remover != null) {
+            remover.clean ();
+            return;
+        } // if
+        try {
+            if (file != null) file.close ();
+        } catch (IOException ex) {
+            out.println ("FileList.drop: unable to close - " + ex);
+        } // try
+        new File (table.getName () + EXT).delete ();
+    } // drop
+
+    /***************************************************************************
+     * Append the record id of the record in the given page and slot.
+     * @param page  the page holding the record
+     * @param slot  the record's slot within the page
+     */
+    private void addRid (int page, int slot)
+    {
+        if (nRecords == rid.length) rid = Arrays.copyOf (rid, 2 * rid.length);
+        rid [nRecords++] = ((long) page << 16) | slot;
+    } // addRid
+
+    /***************************************************************************
+     * Return the number of free bytes between the slot table and the records of
+     * the given data page.
+     * @param page  the number of the data page
+     * @return  the free space in bytes
+     */
+    private int freeSpace (int page)
+    {
+        ByteBuffer buf  = pin (page);
+        int        free = (buf.getShort (4) & 0xffff) - PAGE_HEADER - buf.getShort (2) * SLOT_SIZE;
+        unpin (page, false);
+        return free;
+    } // freeSpace
+
+    /***************************************************************************
+     * Append an empty data page to the file.
+     * @return  the number of the new page
+     */
+    private int newDataPage ()
+    {
+        int        page = nPages++;
+        ByteBuffer buf  = pin (page);
+        buf.putShort (0, DATA).putShort (2, (short) 0).putShort (4, (short) pageSize);
+        unpin (page, true);
+        return page;
+    } // newDataPage
+
+    /***************************************************************************
+     * Write a value to a chain of newly appended overflow pages.
+     * @param value  the bytes to write
+     * @return  the number of the first page in the chain
+     */
+    private int writeOverflow (byte [] value)
+    {
+        int room  = pageSize - OVERFLOW_HEADER;
+        int n     = Math.max (1, (value.length + room - 1) / room);
+        int first = nPages;
+        nPages   += n;
+
+        for (int k = 0; k < n; k++) {
+            int        len = Math.min (room, value.length - k * room);
+            ByteBuffer buf = pin (first + k);
+            buf.putShort (0, OVERFLOW).putInt (4, k + 1 < n ? first + k + 1 : -1).putInt (8, len);
+            buf.put (OVERFLOW_HEADER, value, k * room, len);
+            unpin (first + k, true);
+        } // for
+        return first;
+    } // writeOverflow
+
+    /***************************************************************************
+     * Read a value from the chain of overflow pages starting at the given page.
+     * @param page    the first page in the chain
+     * @param length  the number of bytes in the value
+     * @return  the bytes of the value
+     */
+    private byte [] readOverflow (int page, int length)
+    {
+        byte [] value = new byte [length];
+        for (int pos = 0; pos < length && page > 0; ) {
+            ByteBuffer buf  = pin (page);
+            int        len  = buf.getInt (8);
+            int        next = buf.getInt (4);
+            buf.get (OVERFLOW_HEADER, value, pos, len);
+            unpin (page, false);
+            pos += len;
+            page = next;
+        } // for
+        return value;
+    } // readOverflow
+
+    /***************************************************************************
+     * Pin the given page, returning a buffer whose bytes are the page's bytes.
+     * In mapped mode this is a slice of the mapping, which is extended by a
+     * chunk when the page lies beyond its end.
+     * @param page  the number of the page to pin
+     * @return  the page's bytes (use absolute gets/puts)
+     */
+    private ByteBuffer pin (int page)
+    {
+        if (pool != null) return pool.pin (page);
+
+        int c = page / CHUNK_PAGES;
+        try {
+            while (chunk.size () <= c) {
+                long pos = (long) chunk.size () * CHUNK_PAGES * pageSize;
+                chunk.add (file.getChannel ().map (FileChannel.MapMode.READ_WRITE, pos, (long) CHUNK_PAGES * pageSize));
+            } // while
+        } catch (IOException ex) {
+            throw new UncheckedIOException ("FileList.pin: unable to map page " + page, ex);
+        } // try
+        return chunk.get (c).slice ((page % CHUNK_PAGES) * pageSize, pageSize);
+    } // pin
+
+    /***************************************************************************
+     * Unpin the given page (a no-op in mapped mode).
+     * @param page   the number of the page to unpin
+     * @param dirty  whether the page was modified while pinned
+     */
+    private void unpin (int page, boolean dirty)
+    {
+        if (pool != null) pool.unpin (page, dirty);
+    } // unpin
+
 } // FileList class
 
@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * @file  IndexType.java
+ *
+ * @author   agent
+ */
+
+/*******************************************************************************
+ * This enumeration lists the kinds of map that can be used as an index on a
+ * table (see Table.createIndex and the Table constructors).  A BpTree keeps its
+ * keys in order and so also serves range queries; the hash maps serve only
+ * equality lookups.
+ */
+public enum IndexType
+{
+    /** B+Tree (ordered: point and range queries).
+     */
+    BPTREE,
+
+    /** Extendable Hashing (point queries).
+     */
+    EXTHASH,
+
+    /** Linear Hashing (point queries).
+     */
+    LINHASH,
+
+    /** B+Tree kept in an index file (ordered: point and range queries; for
+     *  secondary indexes only, as it maps values to record ids).
+     */
+    DISK_BPTREE
+
+} // IndexType enum
+
@@ -13,14 +13,25 @@ import static java.lang.System.out;
  * The KeyType class provides a key type for handling both non-composite and
  * composite keys.  A key is a minimal set of attributes that can be used to
  * uniquely identify a tuple.
+ * <p>
+ * Keys made with KeyType.of are specialized: a single Integer, Long or String
+ * value is held directly (see IntKey, LongKey and StringKey), so comparing or
+ * hashing it needs no array indirection or virtual compareTo.  All kinds of
+ * key compare, hash and test equality consistently with one another.
  */
 public class KeyType
        implements Comparable <KeyType>
 {
     /** Array holding the attribute values for a particular key
+     *  (null for the specialized single-value keys)
      */
     private final Comparable [] key;
 
+    /** The cached hash code (0 => not yet computed), since keys are probed
+     *  repeatedly when they are used in hash indexes
+     */
+    private int hash;
+
     /***************************************************************************
      * Construct an instance of KeyType from a Comparable array.  
      * @param _key  the primary key
@@ -30,6 +41,58 @@ public class KeyType
          key = _key;
     } // constructor
 
+    /***************************************************************************
+     * Construct a specialized single-value key (for use by subclasses).
+     */
+    private KeyType ()
+    {
+         key = null;
+    } // constructor
+
+    /***************************************************************************
+     * Return a key for the given attribute values, specialized when it consists
+     * of a single Integer, Long or String.
+     * @param _key  the attribute values of the key
+     * @return  the key
+     */
+    public static KeyType of (Comparable [] _key)
+    {
+        return (_key.length == 1) ? of (_key [0]) : new KeyType (_key);
+    } // of
+
+    /***************************************************************************
+     * Return a key for a single attribute value, specialized when it is an
+     * Integer, Long or String.
+     * @param value  the attribute value
+     * @return  the key
+     */
+    public static KeyType of (Comparable value)
+    {
+        if (value instanceof Integer) return new IntKey ((Integer) value);
+        if (value instanceof String)  return new StringKey ((String) value);
+        if (value instanceof Long)    return new LongKey ((Long) value);
+        return new KeyType (new Comparable [] { value });
+    } // of
+
+    /***************************************************************************
+     * Return the number of attribute values in the key.
+     * @return  the arity of the key
+     */
+    public int size ()
+    {
+        return key.length;
+    } // size
+
+    /***************************************************************************
+     * Return the i-th attribute value of the key.
+     * @param i  the position of the value
+     * @return  the value
+     */
+    public Comparable get (int i)
+    {
+        return key [i];
+    } // get
+
     /***************************************************************************
      * Compare two keys (negative => less than, zero => equals,
      *                   positive => greater than).
@@ -39,32 +102,37 @@ public class KeyType
     @SuppressWarnings("unchecked")
     public int compareTo (KeyType k)
     {
+        if (k.key == null) return -k.compareTo (this);
         for (int i = 0; i < key.length; i++) {
-            if (key [i].compareTo (k.key [i]) < 0) return -1;
-            if (key [i].compareTo (k.key [i]) > 0) return 1;
+            int c = key [i].compareTo (k.key [i]);
+            if (c != 0) return c;
         } // for
         return 0;
     } // compareTo
 
     /***************************************************************************
      * Determine whether two keys are equal (equals must agree with compareTo).
+     * Overrides Object.equals so that hash maps (e.g., LinHash) match keys.
      * @param k  the other key (to compare with this)
      * @return  true if equal, false otherwise
      */
-    public boolean equals (KeyType k)
+    public boolean equals (Object k)
     {
-        return compareTo (k) == 0;
+        return k instanceof KeyType && compareTo ((KeyType) k) == 0;
     } // equals
 
     /***************************************************************************
      * Compute a hash code for this object (equal objects should produce the same
-     * hash code).
+     * hash code).  A single-value key hashes to its value's hash code.
      * @return  an integer hash code value
      */
     public int hashCode ()
     {
-        int sum = 0;
-        for (int i = 0; i < key.length; i++) sum = 7 * sum + key [i].hashCode ();
+        int sum = hash;
+        if (sum == 0) {
+            for (int i = 0; i < key.length; i++) sum = 7 * sum + key [i].hashCode ();
+            hash = sum;
+        } // if
         return sum;
     } // hashCode
 
@@ -75,10 +143,84 @@ public class KeyType
     public String toString ()
     {
         String s = "Key (";
-        for (int i = 0; i < key.length; i++) s += " " + key [i];
+        for (int i = 0; i < size (); i++) s += " " + get (i);
         return s + (" )");
     } // toString
 
+    /***************************************************************************
+     * This inner class defines keys consisting of a single Integer.
+     */
+    static final class IntKey extends KeyType
+    {
+        final int v;
+
+        IntKey (int _v)
+        {
+            v = _v;
+        } // constructor
+
+        public int size ()              { return 1; }
+        public Comparable get (int i)   { return v; }
+        public int hashCode ()          { return v; }
+        public boolean equals (Object k) { return (k instanceof IntKey) ? ((IntKey) k).v == v : super.equals (k); }
+
+        @SuppressWarnings("unchecked")
+        public int compareTo (KeyType k)
+        {
+            if (k instanceof IntKey) return Integer.compare (v, ((IntKey) k).v);
+            return ((Comparable) v).compareTo (k.get (0));
+        } // compareTo
+    } // IntKey inner class
+
+    /***************************************************************************
+     * This inner class defines keys consisting of a single Long.
+     */
+    static final class LongKey extends KeyType
+    {
+        final long v;
+
+        LongKey (long _v)
+        {
+            v = _v;
+        } // constructor
+
+        public int size ()              { return 1; }
+        public Comparable get (int i)   { return v; }
+        public int hashCode ()          { return Long.hashCode (v); }
+        public boolean equals (Object k) { return (k instanceof LongKey) ? ((LongKey) k).v == v : super.equals (k); }
+
+        @SuppressWarnings("unchecked")
+        public int compareTo (KeyType k)
+        {
+            if (k instanceof LongKey) return Long.compare (v, ((LongKey) k).v);
+            return ((Comparable) v).compareTo (k.get (0));
+        } // compareTo
+    } // LongKey inner class
+
+    /***************************************************************************
+     * This inner class defines keys consisting of a single String.
+     */
+    static final class StringKey extends KeyType
+    {
+        final String v;
+
+        StringKey (String _v)
+        {
+            v = _v;
+        } // constructor
+
+        public int size ()              { return 1; }
+        public Comparable get (int i)   { return v; }
+        public int hashCode ()          { return v.hashCode (); }
+        public boolean equals (Object k) { return (k instanceof StringKey) ? ((StringKey) k).v.equals (v) : super.equals (k); }
+
+        public int compareTo (KeyType k)
+        {
+            if (k instanceof StringKey) return v.compareTo (((StringKey) k).v);
+            return v.compareTo ((String) k.get (0));
+        } // compareTo
+    } // StringKey inner class
+
     /***************************************************************************
      * The main method is used for testing purposes only.
      * @param args  the command-line arguments
@@ -114,6 +256,16 @@ public class KeyType
                      (key1.hashCode () == key2.hashCode ()));
         out.println ("key1.hashCode () == key3.hashCode (): " +
                      (key1.hashCode () == key3.hashCode ()));
+
+        KeyType key4 = KeyType.of (new Comparable [] { 1980 });
+        KeyType key5 = new KeyType (new Comparable [] { 1980 });
+        KeyType key6 = KeyType.of ("Rocky");
+        out.println ();
+        out.println ("key4 = " + key4 + " is a " + key4.getClass ().getSimpleName ());
+        out.println ("key4.equals (key5): " + key4.equals (key5) + ", key5.equals (key4): " + key5.equals (key4));
+        out.println ("key4.compareTo (key5) == 0: " + (key4.compareTo (key5) == 0));
+        out.println ("key4.hashCode () == key5.hashCode (): " + (key4.hashCode () == key5.hashCode ()));
+        out.println ("key6 < StringKey (Star_Wars): " + (key6.compareTo (KeyType.of ("Star_Wars")) < 0));
     } // main
 
 } // KeyType class
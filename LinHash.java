@@ -69,6 +69,18 @@ public class LinHash <K, V>
      */
     private int split = 0;
 
+    /** The number of key-value pairs stored in the hash table.
+     */
+    private int nKeys = 0;
+
+    /** The average number of keys per home bucket slot at which to split.
+     */
+    private final double loadFactor;
+
+    /** The default load factor.
+     */
+    private static final double LOAD_FACTOR = 0.75;
+
     /***************************************************************************
      * Construct a hash table that uses Linear Hashing.
      * @param classK    the class for keys (K)
@@ -77,11 +89,29 @@ public class LinHash <K, V>
      */
     public LinHash (Class <K> _classK, Class <V> _classV, int initSize)
     {
-        classK = _classK;
-        classV = _classV;
-        hTable = new ArrayList <> ();
-        mod1   = initSize;
-        mod2   = 2 * mod1;
+        this (_classK, _classV, initSize, LOAD_FACTOR);
+    } // LinHash
+
+    /***************************************************************************
+     * Construct a hash table that uses Linear Hashing, splitting one bucket
+     * each time the number of keys exceeds loadFactor * SLOTS * home buckets.
+     * @param classK      the class for keys (K)
+     * @param classV      the class for keys (V)
+     * @param initSize    the initial number of home buckets (a power of 2, e.g., 4)
+     * @param loadFactor  the load factor that triggers a split (e.g., 0.75)
+     */
+    public LinHash (Class <K> _classK, Class <V> _classV, int initSize, double _loadFactor)
+    {
+        if (initSize < 1 || _loadFactor <= 0.0) {
+            throw new IllegalArgumentException ("LinHash: invalid initial size or load factor");
+        } // if
+        classK     = _classK;
+        classV     = _classV;
+        loadFactor = _loadFactor;
+        hTable     = new ArrayList <> ();
+        mod1       = initSize;
+        mod2       = 2 * mod1;
+        for (int i = 0; i < mod1; i++) hTable.add (new Bucket (null));
     } // LinHash
 
     /***************************************************************************
@@ -92,9 +122,13 @@ public class LinHash <K, V>
     {
         Set <Map.Entry <K, V>> enSet = new HashSet <> ();
 
-             //-----------------\\
-            // TO BE IMPLEMENTED \\
-           //---------------------\\
+        for (Bucket b : hTable) {
+            for ( ; b != null; b = b.next) {
+                for (int j = 0; j < b.nKeys; j++) {
+                    enSet.add (new AbstractMap.SimpleEntry <K, V> (b.key [j], b.value [j]));
+                } // for
+            } // for
+        } // for
             
         return enSet;
     } // entrySet
@@ -106,39 +140,87 @@ public class LinHash <K, V>
      */
     public V get (Object key)
     {
-        int i = h (key);
+        int i = address (key);
 
-             //-----------------\\
-            // TO BE IMPLEMENTED \\
-           //---------------------\\
+        for (Bucket b = hTable.get (i); b != null; b = b.next) {
+            count++;
+            for (int j = 0; j < b.nKeys; j++) if (key.equals (b.key [j])) return b.value [j];
+        } // for
 
         return null;
     } // get
 
     /***************************************************************************
-     * Put the key-value pair in the hash table.
+     * Put the key-value pair in the hash table.  An existing key has its value
+     * replaced; a new key goes in the first bucket of its chain with a free slot
+     * (adding an overflow bucket if there is none) and may trigger the split of
+     * one bucket, so the table grows by one bucket at a time.
      * @param key    the key to insert
      * @param value  the value to insert
      * @return  null (not the previous value)
      */
     public V put (K key, V value)
     {
-        int i = h (key);
+        int i = address (key);
 
-             //-----------------\\
-            // TO BE IMPLEMENTED \\
-           //---------------------\\
+        Bucket free = null, last = null;
+        for (Bucket b = hTable.get (i); b != null; b = b.next) {
+            count++;
+            for (int j = 0; j < b.nKeys; j++) {
+                if (key.equals (b.key [j])) { b.value [j] = value; return null; }
+            } // for
+            if (free == null && b.nKeys < SLOTS) free = b;
+            last = b;
+        } // for
+        if (free == null) free = last.next = new Bucket (null);
+        free.key [free.nKeys]   = key;
+        free.value [free.nKeys] = value;
+        free.nKeys++;
 
+        if (++nKeys > loadFactor * SLOTS * (mod1 + split)) splitBucket ();
         return null;
     } // put
 
     /***************************************************************************
-     * Return the size (SLOTS * number of home buckets) of the hash table. 
+     * Remove the key (and its value) from the hash table.  The last pair in the
+     * chain fills the hole, and an overflow bucket left empty is unlinked.
+     * Buckets are not merged back together.
+     * @param key  the key to remove
+     * @return  the value that was associated with the key (null if none)
+     */
+    public V remove (Object key)
+    {
+        int i = address (key);
+
+        Bucket head = hTable.get (i), tail = head, prev = null;
+        while (tail.next != null) { prev = tail; tail = tail.next; }
+        for (Bucket b = head; b != null; b = b.next) {
+            count++;
+            for (int j = 0; j < b.nKeys; j++) {
+                if (key.equals (b.key [j])) {
+                    V old = b.value [j];
+                    tail.nKeys--;
+                    b.key [j]   = tail.key [tail.nKeys];
+                    b.value [j] = tail.value [tail.nKeys];
+                    tail.key [tail.nKeys]   = null;
+                    tail.value [tail.nKeys] = null;
+                    if (tail.nKeys == 0 && prev != null) prev.next = null;
+                    nKeys--;
+                    return old;
+                } // if
+            } // for
+        } // for
+
+        return null;
+    } // remove
+
+    /***************************************************************************
+     * Return the number of key-value pairs in the hash table.
      * @return  the size of the hash table
      */
     public int size ()
     {
-        return SLOTS * (mod1 + split);
+        return nKeys;
     } // size
 
     /***************************************************************************
@@ -149,13 +231,71 @@ public class LinHash <K, V>
         out.println ("Hash Table (Linear Hashing)");
         out.println ("-------------------------------------------");
 
-             //-----------------\\
-            // TO BE IMPLEMENTED \\
-           //---------------------\\
+        out.println ("mod1 = " + mod1 + ", split = " + split + ", keys = " + nKeys);
+        for (int i = 0; i < hTable.size (); i++) {
+            out.print ("[" + i + "]");
+            for (Bucket b = hTable.get (i); b != null; b = b.next) {
+                out.print (" |");
+                for (int j = 0; j < b.nKeys; j++) out.print (" " + b.key [j] + "=" + b.value [j]);
+                out.print (" |");
+            } // for
+            out.println ();
+        } // for
 
         out.println ("-------------------------------------------");
     } // print
 
+    /***************************************************************************
+     * Split the bucket chain at index split: its pairs are rehashed with h2
+     * either back into bucket split or into a new bucket split + mod1 added at
+     * the end of the table.  Once every bucket of the round has been split, the
+     * moduli double and the next round starts over at bucket 0.
+     */
+    private void splitBucket ()
+    {
+        Bucket old = hTable.get (split);
+        hTable.set (split, new Bucket (null));
+        hTable.add (new Bucket (null));
+        for (Bucket b = old; b != null; b = b.next) {
+            for (int j = 0; j < b.nKeys; j++) append (hTable.get (h2 (b.key [j])), b.key [j], b.value [j]);
+        } // for
+
+        if (++split == mod1) {
+            mod1  = mod2;
+            mod2  = 2 * mod1;
+            split = 0;
+        } // if
+    } // splitBucket
+
+    /***************************************************************************
+     * Add the key-value pair (known not to be present) to the bucket chain.
+     * @param b      the first bucket of the chain
+     * @param key    the key to add
+     * @param value  the value to add
+     */
+    private void append (Bucket b, K key, V value)
+    {
+        while (b.nKeys == SLOTS) {
+            if (b.next == null) b.next = new Bucket (null);
+            b = b.next;
+        } // while
+        b.key [b.nKeys]   = key;
+        b.value [b.nKeys] = value;
+        b.nKeys++;
+    } // append
+
+    /***************************************************************************
+     * Return the location of the bucket chain for the key: h (key), unless that
+     * bucket has already been split this round, in which case h2 (key).
+     * @param key  the key to locate
+     * @return  the location of the bucket chain containing the key-value pair
+     */
+    private int address (Object key)
+    {
+        int i = h (key);
+        return (i < split) ? h2 (key) : i;
+    } // address
+
     /***************************************************************************
      * Hash the key using the low resolution hash function.
      * @param key  the key to hash
@@ -163,7 +303,7 @@ public class LinHash <K, V>
      */
     private int h (Object key)
     {
-        return key.hashCode () % mod1;
+        return (key.hashCode () & 0x7fffffff) % mod1;
     } // h
 
     /***************************************************************************
@@ -173,7 +313,7 @@ public class LinHash <K, V>
      */
     private int h2 (Object key)
     {
-        return key.hashCode () % mod2;
+        return (key.hashCode () & 0x7fffffff) % mod2;
     } // h2
 
     /***************************************************************************
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * @file  OpenFiles.java
+ *
+ * @author   agent
+ */
+
+import java.io.*;
+import java.lang.ref.Cleaner;
+import static java.lang.System.out;
+import java.util.*;
+
+/*******************************************************************************
+ * This class keeps track of the files opened by FileLists and DiskBpTrees.
+ * Those still open when the JVM shuts down are flushed, so that pages held in
+ * their buffer pools are not lost.  A temporary file (e.g., of a query result
+ * or a secondary index) is instead deleted: once its owner removes it or
+ * becomes unreachable, or else at shutdown.
+ */
+public final class OpenFiles
+{
+    /** The owners of open files, flushed when the JVM shuts down.  Owners of
+     *  temporary files are not kept here.
+     */
+    private static final Set <Flushable> open =
+        Collections.newSetFromMap (new IdentityHashMap <Flushable, Boolean> ());
+
+    /** Names of the temporary files not yet removed, deleted when the JVM shuts
+     *  down.
+     */
+    private static final Set <String> tempFiles = new HashSet <String> ();
+
+    /** Closes and deletes a temporary file whose owner becomes unreachable
+     *  without having removed it.
+     */
+    private static final Cleaner cleaner = Cleaner.create ();
+
+    static {
+        Runtime.getRuntime ().addShutdownHook (new Thread () {
+            public void run ()
+            {
+                synchronized (open) {
+                    for (Flushable f : open) {
+                        try {
+                            f.flush ();
+                        } catch (IOException ex) {
+                            out.println ("OpenFiles: unable to flush - " + ex);
+                        } // try
+                    } // for
+                } // synchronized
+                synchronized (tempFiles) {
+                    for (String name : tempFiles) new File (name).delete ();
+                } // synchronized
+            } // run
+        });
+    } // static
+
+    /***************************************************************************
+     * This nested class removes a temporary file.  It must not refer to the
+     * file's owner, so that the owner can become unreachable.
+     */
+    private static class Remover
+            implements Runnable
+    {
+        private final RandomAccessFile file;
+        private final String           name;
+
+        Remover (RandomAccessFile _file, String _name) { file = _file; name = _name; }
+
+        public void run ()
+        {
+            try {
+                file.close ();
+            } catch (IOException ex) {
+                out.println ("OpenFiles.Remover: unable to close - " + ex);
+            } // try
+            new File (name).delete ();
+            synchronized (tempFiles) { tempFiles.remove (name); }
+        } // run
+    } // Remover
+
+    /***************************************************************************
+     * Not to be instantiated.
+     */
+    private OpenFiles () {}
+
+    /***************************************************************************
+     * Record the owner of a newly opened file, to be flushed at shutdown.
+     * @param owner  the list or index owning the file
+     */
+    public static void add (Flushable owner)
+    {
+        synchronized (open) { open.add (owner); }
+    } // add
+
+    /***************************************************************************
+     * Forget the owner of a file that has been closed or dropped.
+     * @param owner  the list or index owning the file
+     */
+    public static void remove (Flushable owner)
+    {
+        synchronized (open) { open.remove (owner); }
+    } // remove
+
+    /***************************************************************************
+     * Record a temporary file, which is closed and deleted when the returned
+     * cleanable is cleaned (by its owner) or the owner becomes unreachable, and
+     * otherwise when the JVM shuts down.
+     * @param owner  the list or index owning the file
+     * @param file   the open file
+     * @param name   the name of the file
+     * @return  the cleanable that removes the file
+     */
+    public static Cleaner.Cleanable temporary (Object owner, RandomAccessFile file, String name)
+    {
+        synchronized (tempFiles) { tempFiles.add (name); }
+        return cleaner.register (owner, new Remover (file, name));
+    } // temporary
+
+} // OpenFiles class
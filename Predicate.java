@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * @file  Predicate.java
+ *
+ * @author   Ryan Gell
+ */
+
+import static java.lang.System.out;
+import java.util.*;
+
+/*******************************************************************************
+ * This class provides compiled selection conditions.  A condition in postfix
+ * form (see Table.infix2postfix) is compiled once, against a table's schema,
+ * into a tree of predicate objects: comparisons whose column positions and
+ * literal values are resolved up front, combined by "&" and "|" nodes.
+ * Evaluating a tuple then just walks the tree, comparing values.
+ */
+public abstract class Predicate
+{
+    /** Comparison operators.
+     */
+    static final int EQ = 0, NE = 1, LT = 2, LE = 3, GT = 4, GE = 5;
+
+    /** The operator symbols, indexed by operator.
+     */
+    private static final String [] SYMBOL = { "==", "!=", "<", "<=", ">", ">=" };
+
+    /** The operators obtained by swapping the operands, indexed by operator.
+     */
+    private static final int [] FLIP = { EQ, NE, GT, GE, LT, LE };
+
+    /***************************************************************************
+     * Determine whether the tuple satisfies this predicate.
+     * @param tup  the tuple to check
+     * @return  whether to keep the tuple
+     */
+    public abstract boolean eval (Comparable [] tup);
+
+    /***************************************************************************
+     * Collect the comparisons of a column with a literal that must all hold for
+     * this predicate to hold, i.e., those reachable through "&" nodes only.
+     * These are the comparisons an index may be used for.
+     * @param list  the list to add the comparisons to
+     */
+    void conjuncts (List <Compare> list)
+    {
+    } // conjuncts
+
+    /***************************************************************************
+     * This inner class defines comparisons of a column with a literal value
+     * (col op value) or with another column (col op col2).
+     */
+    static final class Compare extends Predicate
+    {
+        final int        col;
+        final int        op;
+        final Comparable value;
+        final int        col2;
+
+        Compare (int _col, int _op, Comparable _value, int _col2)
+        {
+            col   = _col;
+            op    = _op;
+            value = _value;
+            col2  = _col2;
+        } // constructor
+
+        @SuppressWarnings("unchecked")
+        public boolean eval (Comparable [] tup)
+        {
+            int c = tup [col].compareTo (col2 < 0 ? value : tup [col2]);
+            switch (op) {
+            case EQ: return c == 0;
+            case NE: return c != 0;
+            case LT: return c < 0;
+            case LE: return c <= 0;
+            case GT: return c > 0;
+            default: return c >= 0;
+            } // switch
+        } // eval
+
+        void conjuncts (List <Compare> list)
+        {
+            if (col2 < 0) list.add (this);
+        } // conjuncts
+
+        public String toString ()
+        {
+            return "#" + col + " " + SYMBOL [op] + " " + (col2 < 0 ? value : "#" + col2);
+        } // toString
+    } // Compare inner class
+
+    /***************************************************************************
+     * This inner class defines conjunctions (lhs & rhs).
+     */
+    static final class And extends Predicate
+    {
+        final Predicate lhs, rhs;
+
+        And (Predicate _lhs, Predicate _rhs)
+        {
+            lhs = _lhs;
+            rhs = _rhs;
+        } // constructor
+
+        public boolean eval (Comparable [] tup)
+        {
+            return lhs.eval (tup) && rhs.eval (tup);
+        } // eval
+
+        void conjuncts (List <Compare> list)
+        {
+            lhs.conjuncts (list);
+            rhs.conjuncts (list);
+        } // conjuncts
+
+        public String toString ()
+        {
+            return "(" + lhs + " & " + rhs + ")";
+        } // toString
+    } // And inner class
+
+    /***************************************************************************
+     * This inner class defines disjunctions (lhs | rhs).
+     */
+    static final class Or extends Predicate
+    {
+        final Predicate lhs, rhs;
+
+        Or (Predicate _lhs, Predicate _rhs)
+        {
+            lhs = _lhs;
+            rhs = _rhs;
+        } // constructor
+
+        public boolean eval (Comparable [] tup)
+        {
+            return lhs.eval (tup) || rhs.eval (tup);
+        } // eval
+
+        public String toString ()
+        {
+            return "(" + lhs + " | " + rhs + ")";
+        } // toString
+    } // Or inner class
+
+    /** The predicate satisfied by every tuple (an empty condition).
+     */
+    static final Predicate TRUE = new Predicate () {
+        public boolean eval (Comparable [] tup) { return true; }
+        public String toString () { return "true"; }
+    };
+
+    /***************************************************************************
+     * Compile a postfix condition against the given schema.  Each comparison
+     * must have an attribute on at least one side (attribute names are matched
+     * ignoring case); the other side is either an attribute or a literal, which
+     * is converted to the attribute's domain.  A literal on the left is moved to
+     * the right by flipping the operator, e.g., "1979 < year" => "year > 1979".
+     * @param postfix    the postfix expression for the condition
+     * @param attribute  the attribute names of the schema
+     * @param domain     the attribute domains of the schema
+     * @return  the compiled predicate (null if the condition is ill-formed)
+     */
+    public static Predicate compile (String [] postfix, String [] attribute, Class [] domain)
+    {
+        if (postfix == null) return TRUE;
+
+        Deque <Object> s = new ArrayDeque <Object> ();
+        for (String token : postfix) {
+            if (token == null) break;
+            int op = operator (token);
+            if (op >= 0) {
+                if (s.size () < 2 || ! (s.peek () instanceof String)) return illFormed ();
+                String right = (String) s.pop ();
+                if (! (s.peek () instanceof String)) return illFormed ();
+                String left  = (String) s.pop ();
+                int    lcol  = column (left, attribute);
+                int    rcol  = column (right, attribute);
+                if (lcol >= 0 && rcol >= 0) {
+                    s.push (new Compare (lcol, op, null, rcol));
+                } else if (lcol >= 0) {
+                    Comparable value = literal (domain [lcol], right);
+                    if (value == null) return illFormed ();
+                    s.push (new Compare (lcol, op, value, -1));
+                } else if (rcol >= 0) {
+                    Comparable value = literal (domain [rcol], left);
+                    if (value == null) return illFormed ();
+                    s.push (new Compare (rcol, FLIP [op], value, -1));
+                } else {
+                    return illFormed ();
+                } // if
+            } else if (token.equals ("&") || token.equals ("|")) {
+                if (s.size () < 2 || ! (s.peek () instanceof Predicate)) return illFormed ();
+                Predicate rhs = (Predicate) s.pop ();
+                if (! (s.peek () instanceof Predicate)) return illFormed ();
+                Predicate lhs = (Predicate) s.pop ();
+                s.push (token.equals ("&") ? new And (lhs, rhs) : new Or (lhs, rhs));
+            } else {
+                s.push (token);
+            } // if
+        } // for
+
+        if (s.size () != 1 || ! (s.peek () instanceof Predicate)) return illFormed ();
+        return (Predicate) s.pop ();
+    } // compile
+
+    /***************************************************************************
+     * Return the operator code for the token (-1 if it is not a comparison).
+     * @param token  the token to check
+     * @return  the operator code
+     */
+    private static int operator (String token)
+    {
+        for (int op = 0; op < SYMBOL.length; op++) if (SYMBOL [op].equals (token)) return op;
+        return -1;
+    } // operator
+
+    /***************************************************************************
+     * Return the position of the named attribute, ignoring case (-1 if absent).
+     * @param name       the attribute name
+     * @param attribute  the attribute names of the schema
+     * @return  the column position
+     */
+    private static int column (String name, String [] attribute)
+    {
+        for (int j = 0; j < attribute.length; j++) if (attribute [j].equalsIgnoreCase (name)) return j;
+        return -1;
+    } // column
+
+    /***************************************************************************
+     * Convert a literal to a value of the given domain.
+     * @param dom    the domain (data type)
+     * @param value  the literal
+     * @return  the typed value
+     */
+    @SuppressWarnings("unchecked")
+    private static Comparable literal (Class dom, String value)
+    {
+        if (dom == Character.class && value.length () == 1) return value.charAt (0);
+        return String2Type.cons (dom, value);
+    } // literal
+
+    /***************************************************************************
+     * Report an ill-formed condition.
+     * @return  null
+     */
+    private static Predicate illFormed ()
+    {
+        out.println ("Predicate.compile: select condition is ill-formed");
+        return null;
+    } // illFormed
+
+} // Predicate class
+
@@ -13,9 +13,9 @@ import java.util.*;
 /*******************************************************************************
  * This class implements relational database tables (including attribute names,
  * domains and a list of tuples.  Five basic relational algebra operators are
- * provided: project, select, union, minus and join.  The insert data manipulation
- * operator is also provided.  Missing are update and delete data manipulation
- * operators.
+ * provided: project, select, union, minus and join.  The insert and delete data
+ * manipulation operators are also provided.  Missing is the update data
+ * manipulation operator.
  */
 public class Table
        implements Serializable, Cloneable
@@ -28,6 +28,24 @@ public class Table
      */
     private static int count = 0;
 
+    /** The default memory budget of joins (see joinBudget).
+     */
+    private static final int DEFAULT_JOIN_BUDGET = 1 << 17;
+
+    /** The fraction of each node filled when a BpTree index is bulk loaded.
+     */
+    private static final double INDEX_FILL = 0.9;
+
+    /** Limits on grace hash join partitioning: the number of partitions per
+     *  level and the number of levels (beyond which a partition of equal join
+     *  values is joined in memory regardless).
+     */
+    private static final int MAX_PARTITIONS = 64, MAX_PARTITION_DEPTH = 3;
+
+    /** Seeds of the partitioning hash, one per level of partitioning.
+     */
+    private static final long [] PARTITION_SEED = { 0x2545f4914f6cdd1dL, 0x9e3779b97f4a7c15L, 0xc2b2ae3d27d4eb4fL };
+
     /** Table name.
      */
     private final String name;
@@ -43,9 +61,13 @@ public class Table
      */
     private final Class [] domain;
 
+    /** Codec for packing/unpacking tuples, compiled from the domains.
+     */
+    private final TupleCodec codec;
+
     /** Collection of tuples (data storage).
      */
-    private final List <Comparable []> tuples;
+    private final FileList tuples;
 
     /** Primary key. 
      */
@@ -55,23 +77,119 @@ public class Table
      */
     private final Map <KeyType, Comparable []> index;
 
+    /** The kind of map used for the primary index.
+     */
+    private final IndexType indexType;
+
+    /** Whether this table's index keys are built in normalized (binary-comparable)
+     *  form (see NormalizedKey), rather than as KeyType's.
+     */
+    private final boolean normalizedKeys;
+
+    /** The memory budget of joins run on this table: the number of tuples a
+     *  hash join may hold in memory before it partitions its inputs to disk
+     *  (grace hash join), and the size of the runs of an external sort.
+     */
+    private int joinBudget = DEFAULT_JOIN_BUDGET;
+
+    /** Secondary indexes by column position (map an attribute value to the
+     *  record ids of the tuples having that value).
+     */
+    private final Map <Integer, Map <KeyType, List <Long>>> secondary = new LinkedHashMap <Integer, Map <KeyType, List <Long>>> ();
+
     /***************************************************************************
-     * Construct an empty table from the meta-data specifications.
+     * This nested class describes the access path chosen for a predicate (see
+     * access): a primary index lookup of a whole key, a secondary index lookup
+     * of a value, an index range scan of a column, or a table scan.
+     */
+    private static final class Access
+    {
+        static final int SCAN = 0, KEY = 1, LOOKUP = 2, RANGE = 3;
+
+        int           kind = SCAN;
+        Comparable [] keyVal;                  // the key values (KEY)
+        int           col;                     // the indexed column (LOOKUP, RANGE)
+        Comparable    lo, hi;                  // the value (LOOKUP: lo) or inclusive bounds (RANGE, null => none)
+    } // Access
+
+    /***************************************************************************
+     * Construct a table from the meta-data specifications, using Extendable
+     * Hashing for its primary index.  If a data file for the table already
+     * exists, its tuples are recovered and indexed.
      * @param _name       the name of the relation
      * @param _attribute  the string containing attributes names
      * @param _domain     the string containing attribute domains (data types)
      * @param _key        the primary key
      */  
     public Table (String _name, String [] _attribute, Class [] _domain, String [] _key)
+    {
+        this (_name, _attribute, _domain, _key, IndexType.EXTHASH);
+    } // Table
+
+    /***************************************************************************
+     * Construct a table from the meta-data specifications, using the given kind
+     * of map for its primary index.  With a BPTREE the index is ordered, so it
+     * also serves range conditions and sort-merge joins on a single-column key.
+     * @param _name       the name of the relation
+     * @param _attribute  the string containing attributes names
+     * @param _domain     the string containing attribute domains (data types)
+     * @param _key        the primary key
+     * @param kind        the kind of map to use for the primary index (not
+     *                    DISK_BPTREE, which maps values to record ids)
+     */  
+    public Table (String _name, String [] _attribute, Class [] _domain, String [] _key, IndexType kind)
+    {
+        this (_name, _attribute, _domain, _key, kind, false);
+    } // Table
+
+    /***************************************************************************
+     * Construct a table from the meta-data specifications, using the given kind
+     * of map for its primary index and choosing the form of its index keys:
+     * normalized keys (see NormalizedKey) are compared as bytes, otherwise keys
+     * are KeyType's, specialized for single Integer, Long and String values.
+     * The form is fixed for the life of the table, as all its indexes must use
+     * the same one.
+     * @param _name       the name of the relation
+     * @param _attribute  the string containing attributes names
+     * @param _domain     the string containing attribute domains (data types)
+     * @param _key        the primary key
+     * @param kind        the kind of map to use for the primary index (not
+     *                    DISK_BPTREE, which maps values to record ids)
+     * @param normalized  whether to build normalized index keys
+     */  
+    public Table (String _name, String [] _attribute, Class [] _domain, String [] _key, IndexType kind, boolean normalized)
+    {
+        this (_name, _attribute, _domain, _key, kind, normalized, false);
+    } // Table
+
+    /***************************************************************************
+     * Construct a table from the meta-data specifications.
+     * @param _name       the name of the relation
+     * @param _attribute  the string containing attributes names
+     * @param _domain     the string containing attribute domains (data types)
+     * @param _key        the primary key
+     * @param kind        the kind of map to use for the primary index (not
+     *                    DISK_BPTREE, which maps values to record ids)
+     * @param normalized  whether to build normalized index keys
+     * @param temp        whether it is a temporary (result) table, whose storage
+     *                    always starts out empty and is deleted once it is
+     *                    dropped or garbage collected
+     */  
+    private Table (String _name, String [] _attribute, Class [] _domain, String [] _key, IndexType kind, boolean normalized,
+                   boolean temp)
     {
         name      = _name;
         attribute = _attribute;
         domain    = _domain;
         key       = _key;
-        tuples    = new FileList (this, tupleSize ());
-        //index     = new TreeMap <KeyType, Comparable[]> ();                  // also try BPTreeMap, LinHash or ExtHash
-        index     = new ExtHash<KeyType, Comparable[]> (KeyType.class, Comparable[].class, attribute.length);
-        //index = new BpTree <KeyType, Comparable[]> (KeyType.class, Comparable[].class);	// code for index if using BpTree
+        codec     = new TupleCodec (domain);
+        tuples    = temp ? FileList.temporary (this) : new FileList (this);
+        //tuples    = new FileList (this, true);                                  // memory-mapped storage for scan-heavy tables
+        indexType      = kind;
+        normalizedKeys = normalized;
+        index          = newIndex (kind, Comparable [].class);
+
+        if (tuples.size () > 0) rebuildIndex ();
      } // Table
 
     /***************************************************************************
@@ -82,7 +200,21 @@ public class Table
      */
     public Table (String name, String attributes, String domains, String _key)
     {
-        this (name, attributes.split (" "), findClass (domains.split (" ")), _key.split(" "));
+        this (name, attributes, domains, _key, IndexType.EXTHASH);
+    } // Table
+
+    /***************************************************************************
+     * Construct an empty table from the raw string specifications, using the
+     * given kind of map for its primary index.
+     * @param name        the name of the relation
+     * @param attributes  the string containing attributes names
+     * @param domains     the string containing attribute domains (data types)
+     * @param kind        the kind of map to use for the primary index (not
+     *                    DISK_BPTREE, which maps values to record ids)
+     */
+    public Table (String name, String attributes, String domains, String _key, IndexType kind)
+    {
+        this (name, attributes.split (" "), findClass (domains.split (" ")), _key.split(" "), kind);
 
         out.println ("DDL> create table " + name + " (" + attributes + ")");
     } // Table
@@ -94,7 +226,7 @@ public class Table
      */
     public Table (Table tab, String suffix)
     {
-        this (tab.name + suffix, tab.attribute, tab.domain, tab.key);
+        this (tab.name + suffix, tab.attribute, tab.domain, tab.key, tab.indexType, tab.normalizedKeys);
     } // Table
 
     /***************************************************************************
@@ -142,7 +274,7 @@ public class Table
             newKey = pAttribute; //all attributes if not                                                                                                                 
 
 
-        Table     result     = new Table (name + count++, pAttribute, colDomain, newKey);
+        Table     result     = new Table (name + count++, pAttribute, colDomain, newKey, indexType, normalizedKeys, true);
 
         for (Comparable [] tup : tuples) {
             result.insert(extractTup (tup, colPos));
@@ -156,6 +288,10 @@ public class Table
      * A condition is written as infix expression consists of 
      *   6 comparison operators: "==", "!=", "<", "<=", ">", ">="
      *   2 Boolean operators:    "&", "|"  (from high to low precedence)
+     * The condition is compiled once into a predicate (see Predicate), which is
+     * then evaluated on each candidate tuple: the tuple with the key when the
+     * condition fixes the whole key, a key range of an ordered index, or else
+     * every tuple (see candidates).  An ill-formed condition selects nothing.
      * #usage movie.select ("1979 < year & year < 1990")
      * @param condition  the check condition for tuples
      * @return the table consisting of tuples satisfying the condition
@@ -165,17 +301,103 @@ public class Table
     {
         out.println ("RA> " + name + ".select (" + condition + ")");
 
-       String [] postfix = infix2postfix (condition);
-	System.out.println(Arrays.toString(postfix));
-        Table     result  = new Table (name + count++, attribute, domain, key);
+        Predicate pred   = Predicate.compile (infix2postfix (condition), attribute, domain);  // resolve columns and literals once
+        Table     result = new Table (name + count++, attribute, domain, key, indexType, normalizedKeys, true);
+        if (pred == null) return result;                   // ill-formed condition: nothing selected
 
-        for (Comparable [] tup : tuples) {
-            if (evalTup (postfix, tup)) result.insert(tup);
+        for (Comparable [] tup : candidates (pred)) {
+            if (pred.eval (tup)) result.insert(tup);
         } // for
 
         return result;
     } // select
 
+    /***************************************************************************
+     * Return the tuples that may satisfy the predicate, using an index where
+     * the predicate allows it (the caller still checks each tuple): the access
+     * path chosen by access, with the primary index allowed.
+     * @param pred  the compiled selection condition
+     * @return  the candidate tuples
+     */
+    private Iterable <Comparable []> candidates (Predicate pred)
+    {
+        Access a = access (pred, true);
+        if (a.kind == Access.KEY) {
+            Comparable [] tup = index.get (key (a.keyVal));
+            return (tup == null) ? Collections.<Comparable []> emptyList () : Collections.singletonList (tup);
+        } // if
+        if (a.kind == Access.LOOKUP) return lookup (a.col, a.lo);
+        if (a.kind == Access.RANGE)  return range (a.col, a.lo, a.hi);
+        return tuples;
+    } // candidates
+
+    /***************************************************************************
+     * Choose how to find the tuples that may satisfy the predicate, logging the
+     * plan ("PLAN>").  In order of preference: if every key column is compared
+     * for equality with a literal (and primary is set), the tuple is looked up
+     * in the primary index; if an attribute with a secondary index is, its
+     * tuples are looked up there; if an attribute with an ordered index (e.g., a
+     * BpTree) is bounded by <, <=, > or >=, the range is taken from the index.
+     * Otherwise all tuples are scanned.
+     * @param pred     the compiled condition
+     * @param primary  whether the primary index may be used (it maps keys to
+     *                 tuples rather than rids)
+     * @return  the access path
+     */
+    @SuppressWarnings("unchecked")
+    private Access access (Predicate pred, boolean primary)
+    {
+        List <Predicate.Compare> conj = new ArrayList <Predicate.Compare> ();
+        pred.conjuncts (conj);
+        Access a = new Access ();
+
+        int []        cols   = match (key);
+        Comparable [] keyVal = new Comparable [cols.length];
+        int           found  = 0;
+        for (Predicate.Compare c : conj) {
+            for (int j = 0; j < cols.length; j++) {
+                if (c.op == Predicate.EQ && c.col == cols [j] && keyVal [j] == null) { keyVal [j] = c.value; found++; }
+            } // for
+        } // for
+        if (primary && found == cols.length) {
+            out.println ("PLAN> index lookup on " + name + " (" + Arrays.toString (key) + ")");
+            a.kind   = Access.KEY;
+            a.keyVal = keyVal;
+            return a;
+        } // if
+
+        for (Predicate.Compare c : conj) {
+            if (c.op == Predicate.EQ && secondary.containsKey (c.col)) {
+                out.println ("PLAN> index lookup on " + name + " (" + attribute [c.col] + ")");
+                a.kind = Access.LOOKUP;
+                a.col  = c.col;
+                a.lo   = c.value;
+                return a;
+            } // if
+        } // for
+
+        for (Predicate.Compare r : conj) {
+            if ( ! (primary ? orderedOn (r.col) : secondary.get (r.col) instanceof SortedMap)) continue;
+            Comparable lo = null, hi = null;                                 // tightest bounds (both taken inclusive)
+            for (Predicate.Compare c : conj) {
+                if (c.col != r.col) continue;
+                if ((c.op == Predicate.GT || c.op == Predicate.GE) && (lo == null || c.value.compareTo (lo) > 0)) lo = c.value;
+                if ((c.op == Predicate.LT || c.op == Predicate.LE) && (hi == null || c.value.compareTo (hi) < 0)) hi = c.value;
+            } // for
+            if (lo != null || hi != null) {
+                out.println ("PLAN> index range scan on " + name + " (" + attribute [r.col] + ")");
+                a.kind = Access.RANGE;
+                a.col  = r.col;
+                a.lo   = lo;
+                a.hi   = hi;
+                return a;
+            } // if
+        } // for
+
+        out.println ("PLAN> table scan of " + name);
+        return a;
+    } // access
+
     /***************************************************************************
      * Union this table and table2.  Check that the two tables are compatible.
      * #usage movie.union (show)
@@ -186,7 +408,7 @@ public class Table
     public Table union (Table table2)
     {
         out.println ("RA> " + name + ".union (" + table2.name + ")");
-        Table result = new Table (name + count++, attribute, domain, key);
+        Table result = new Table (name + count++, attribute, domain, key, indexType, normalizedKeys, true);
         if (!this.compatible(table2)){
         	return result;
         }
@@ -215,7 +437,7 @@ public class Table
     {
         out.println ("RA> " + name + ".minus (" + table2.name + ")");
 
-        Table result = new Table (name + count++, attribute, domain, key);
+        Table result = new Table (name + count++, attribute, domain, key, indexType, normalizedKeys, true);
 
 		if ( !this.compatible(table2) ){
 		    System.err.println("Error: Tables not compatible. " + name + " returned.");
@@ -240,6 +462,12 @@ public class Table
      * (e.g., prefix the second occurrence with "s_").
      * Caveat: the key parameter assumes joining the table with the foreign key
      * (this) to the table containing the primary key (table2).
+     * Every matching pair of tuples is joined: by a sort-merge join when the
+     * inputs are ordered on their join attributes by their indexes (see
+     * sortMergeJoin), by probing table2's index when the rhs join attribute is
+     * table2's primary key or has a secondary index (see indexJoin), and
+     * otherwise by a hash join (see hashJoin).
+     * The plan chosen is logged ("PLAN>").
      * #usage movie.join ("studioNo == name", studio);
      * #usage movieStar.join ("name == s.name", starsIn);
      * @param condition  the join condition for tuples
@@ -252,106 +480,423 @@ public class Table
         out.println ("RA> " + name + ".join (" + condition + ", " + table2.name + ")");
 	
 	String [] postfix = infix2postfix(condition);
-	boolean keepAllAttributes = (postfix[1].substring(0, 2).equals("s."));
-		 
-	int attrDomSize = this.getAttributeLength() + table2.getAttributeLength();
-	
-	String rightCondName;
-	
-	if(!keepAllAttributes){
-		attrDomSize--;
-		rightCondName=postfix[1];
+	boolean keepAllAttributes = (postfix[1].startsWith("s."));
+	String rightCondName = keepAllAttributes ? postfix[1].substring(2) : postfix[1];
+
+	int col1 = this.columnPos(postfix[0]);
+	int col2 = table2.columnPos(rightCondName);
+	int skipIndex = keepAllAttributes ? -1 : col2;   // table2 column left out of the result
+
+	Table result = joinResult(table2, col2, postfix[1], keepAllAttributes);
+
+	//Sort-merge when both inputs come in join order from their indexes
+	//Probe table2's index when the join attribute is its key (foreign key to primary key join) or has a secondary index
+	//Sort-merge when one input comes in join order and the other is too big to hash
+	boolean ordered1 = this.orderedOn(col1);
+	boolean ordered2 = table2.orderedOn(col2);
+	if (ordered1 && ordered2){
+		sortMergeJoin(this, col1, table2, col2, skipIndex, result);
+	}
+	else if (table2.keyedOn(col2) || table2.secondary.containsKey(col2)){
+		indexJoin(this, col1, table2, col2, skipIndex, result);
+	}
+	else if ((ordered1 && table2.tuples.size() > joinBudget) || (ordered2 && this.tuples.size() > joinBudget)){
+		sortMergeJoin(this, col1, table2, col2, skipIndex, result);
 	}
 	else{
-		rightCondName=postfix[1].substring(2);
+		hashJoin(this, col1, table2, col2, skipIndex, result, 0);
 	}
-	
+        return result;
+    } // join
+
+    /***************************************************************************
+     * Create the (empty) result table of a join of this table and table2: the
+     * attributes of this table followed by those of table2, either leaving out
+     * table2's join attribute or renaming it to its qualified name.
+     * @param table2             the rhs table in the join operation
+     * @param col2               the column of table2's join attribute
+     * @param rightName          the rhs join attribute as written in the condition
+     * @param keepAllAttributes  whether to keep the join attribute (as rightName)
+     * @return  the empty result table
+     * @author Nicholas Sobrilsky
+     */
+    private Table joinResult (Table table2, int col2, String rightName, boolean keepAllAttributes)
+    {
+	int attrDomSize = this.getAttributeLength() + table2.getAttributeLength() - (keepAllAttributes ? 0 : 1);
 	String [] resultAttribute = new String[attrDomSize];
 	Class [] resultDomain = new Class[attrDomSize];
 		
 	//Sets the attribute and domain arrays of the result to the same of this table
-	for (int initialize=0; initialize<this.getAttributeLength(); initialize++){
-		resultAttribute[initialize] = this.getAttributeAt(initialize);
-		resultDomain[initialize] = this.getDomainAt(initialize);
+	for (int i=0; i<this.getAttributeLength(); i++){
+		resultAttribute[i] = this.getAttributeAt(i);
+		resultDomain[i] = this.getDomainAt(i);
 	}
 	
-	int skipIndex = -1;
-	int skipCounter = 0;
 	/*
-	Adds the attributes of table2 to result attributes
+	Adds the attributes and domains of table2 to the result
 	If the attribute is in the form of s.attrib, rename the attribute and add
 	Else, skip the table2 attribute named in the condition
 	*/
+	int k = this.getAttributeLength();
 	for (int i=0; i<table2.getAttributeLength(); i++){
-		if (keepAllAttributes && table2.getAttributeAt(i).equals(rightCondName)){
-			resultAttribute[this.getAttributeLength()+i+skipCounter] = postfix[1];
-		}
-		else if (table2.getAttributeAt(i).equals(rightCondName)){
-			skipIndex = i;
-			skipCounter--;
-		}
-		else{
-			resultAttribute[this.getAttributeLength()+i+skipCounter] = table2.getAttributeAt(i);
-		}
-	}
-		
-	/*
-	Adds the domains of table2 to result domain
-	If the domain belongs to a skipped attribute, skip it
-	*/
-	skipCounter=0;
-	for (int j=0; j<table2.getDomainLength(); j++){
-		if(j==skipIndex){
-			skipCounter--;
-		}
-		else{
-			resultDomain[this.getDomainLength()+skipCounter+j] = table2.getDomainAt(j);
-		}
+		if (i == col2 && !keepAllAttributes) continue;
+		resultAttribute[k] = (i == col2) ? rightName : table2.getAttributeAt(i);
+		resultDomain[k++] = table2.getDomainAt(i);
 	}
 	
-	Table result = new Table (name + count++, resultAttribute, resultDomain, key);
-		
-	boolean noMatch=false;
-		
-	for(int m=0; m<this.tuples.size(); m++){
-		Comparable [] resultTup = new Comparable[attrDomSize];
-		int table1MatchIndex=0;
-		int table2MatchIndex=0;
-		for (int n=0; n<table2.tuples.size(); n++){
-			if( this.getValueAt(this.columnPos(postfix[0]), this.tuples.get(m)).equals(table2.getValueAt(table2.columnPos(rightCondName), table2.tuples.get(n))) ){
-				table2MatchIndex = n;
-				break;
-			}
-			else if(n==table2.tuples.size()-1){
-				noMatch=true;
-			}
-		} //Matches a tuple from each table that meets the condition
-		
-		if(noMatch){
-			noMatch=false;
-			continue;
-		}
-		
-		for(int t1FillIndex=0; t1FillIndex<this.getAttributeLength(); t1FillIndex++){
-			resultTup[t1FillIndex]=this.getValueAt(t1FillIndex, this.tuples.get(m));
-		} //Adds all items from table1 tuple at index m to resultTup
-		
-		int t2FillLimit=table2.getAttributeLength();
-		
-		skipCounter = 0;
-		for(int t2FillIndex=0; t2FillIndex<t2FillLimit; t2FillIndex++){
-			out.println(t2FillIndex);
-			if(table2.getAttributeAt(t2FillIndex).equals(rightCondName) && !keepAllAttributes){
-				skipCounter--;
-				continue;
-			}
-			resultTup[this.getAttributeLength()+t2FillIndex+skipCounter]=table2.getValueAt(t2FillIndex, table2.tuples.get(table2MatchIndex));
-		} //Adds all unskipped items from the matched tuple in table2
-		
-		result.insert(resultTup);
-	}
-        return result;
-    } // join
+	return new Table (name + count++, resultAttribute, resultDomain, key, indexType, normalizedKeys, true);
+    } // joinResult
+
+    /***************************************************************************
+     * Join the tuples of t1 and t2 whose values in columns col1 and col2 are
+     * equal, where col2 is t2's primary key or has a secondary index, by
+     * scanning t1 and looking up each of its join values in t2's index (index
+     * nested-loop join).
+     * @param t1         the lhs input
+     * @param col1       the join column of t1
+     * @param t2         the rhs input
+     * @param col2       the join column of t2 (indexed)
+     * @param skipIndex  the t2 column left out of the result (-1 => none)
+     * @param result     the table to insert the joined tuples into
+     */
+    private static void indexJoin (Table t1, int col1, Table t2, int col2, int skipIndex, Table result)
+    {
+        out.println ("PLAN> index nested-loop join: scan " + t1.name + ", probe " + t2.name + " index on " + t2.attribute [col2]);
+
+        for (Comparable [] tup : t1.tuples) {
+            for (Comparable [] match : t2.lookup (col2, tup [col1])) result.insert (concat (tup, match, skipIndex));
+        } // for
+    } // indexJoin
+
+    /***************************************************************************
+     * Join the tuples of t1 and t2 whose values in columns col1 and col2 are
+     * equal, inserting the concatenated tuples into result.  The smaller input
+     * is loaded into an in-memory hash table on its join column and the other
+     * input is streamed past it, so each input is read once and every matching
+     * pair is produced.  When the smaller input exceeds t1's join memory budget,
+     * both inputs are first split by a hash of the join column into partitions
+     * (temporary tables on disk) and each pair of partitions is joined in turn
+     * (grace hash join).
+     * @param t1         the lhs input
+     * @param col1       the join column of t1
+     * @param t2         the rhs input
+     * @param col2       the join column of t2
+     * @param skipIndex  the t2 column left out of the result (-1 => none)
+     * @param result     the table to insert the joined tuples into
+     * @param depth      the level of partitioning (0 for the original inputs)
+     */
+    private static void hashJoin (Table t1, int col1, Table t2, int col2, int skipIndex, Table result, int depth)
+    {
+        boolean buildLeft = t1.tuples.size () < t2.tuples.size ();
+        Table   build     = buildLeft ? t1 : t2;
+        int     buildCol  = buildLeft ? col1 : col2;
+
+        int     budget    = t1.joinBudget;                 // t1 is the table joined on (or its partition)
+
+        if (build.tuples.size () > budget && depth < MAX_PARTITION_DEPTH) {
+            int n = (int) Math.min (MAX_PARTITIONS, (build.tuples.size () + budget - 1L) / budget * 2);
+            if (depth == 0) out.println ("PLAN> grace hash join: " + n + " partitions of " + t1.name + ", " + t2.name);
+            Table [] part1 = t1.partition (col1, n, depth);
+            Table [] part2 = t2.partition (col2, n, depth);
+            for (int i = 0; i < n; i++) {
+                if (part1 [i].tuples.size () > 0 && part2 [i].tuples.size () > 0) {
+                    hashJoin (part1 [i], col1, part2 [i], col2, skipIndex, result, depth + 1);
+                } // if
+                part1 [i].drop ();
+                part2 [i].drop ();
+            } // for
+            return;
+        } // if
+
+        if (depth == 0) out.println ("PLAN> hash join: build " + build.name + "." + build.attribute [buildCol] +
+                                     ", probe " + (buildLeft ? t2 : t1).name);
+
+        Map <Comparable, List <Comparable []>> table = new HashMap <Comparable, List <Comparable []>> ();
+        for (Comparable [] tup : build.tuples) {
+            List <Comparable []> bucket = table.get (tup [buildCol]);
+            if (bucket == null) table.put (tup [buildCol], bucket = new ArrayList <Comparable []> (1));
+            bucket.add (tup);
+        } // for
+
+        for (Comparable [] tup : (buildLeft ? t2 : t1).tuples) {
+            List <Comparable []> bucket = table.get (tup [buildLeft ? col2 : col1]);
+            if (bucket == null) continue;
+            for (Comparable [] match : bucket) {
+                if (buildLeft) result.insert (concat (match, tup, skipIndex));
+                else           result.insert (concat (tup, match, skipIndex));
+            } // for
+        } // for
+    } // hashJoin
+
+    /***************************************************************************
+     * Join the tuples of t1 and t2 whose values in columns col1 and col2 are
+     * equal by reading both inputs in join column order and merging them.  An
+     * input whose index is ordered on its join column is read through the index;
+     * any other input is sorted (externally, if it exceeds the join memory
+     * budget).  Each group of equal rhs values is buffered so that every lhs
+     * tuple with that value is joined with every tuple in the group.
+     * @param t1         the lhs input
+     * @param col1       the join column of t1
+     * @param t2         the rhs input
+     * @param col2       the join column of t2
+     * @param skipIndex  the t2 column left out of the result (-1 => none)
+     * @param result     the table to insert the joined tuples into
+     */
+    @SuppressWarnings("unchecked")
+    private static void sortMergeJoin (Table t1, int col1, Table t2, int col2, int skipIndex, Table result)
+    {
+        out.println ("PLAN> sort-merge join: " + t1.name + "." + t1.attribute [col1] + (t1.orderedOn (col1) ? " (index)" : " (sort)") +
+                     ", " + t2.name + "." + t2.attribute [col2] + (t2.orderedOn (col2) ? " (index)" : " (sort)"));
+
+        List <Table>             runs = new ArrayList <Table> ();
+        Iterator <Comparable []> it1  = t1.sorted (col1, t1.joinBudget, runs);
+        Iterator <Comparable []> it2  = t2.sorted (col2, t1.joinBudget, runs);
+        List <Comparable []>     group = new ArrayList <Comparable []> ();
+
+        Comparable [] tup1 = it1.hasNext () ? it1.next () : null;
+        Comparable [] tup2 = it2.hasNext () ? it2.next () : null;
+        while (tup1 != null && tup2 != null) {
+            int c = tup1 [col1].compareTo (tup2 [col2]);
+            if (c < 0) {
+                tup1 = it1.hasNext () ? it1.next () : null;
+            } else if (c > 0) {
+                tup2 = it2.hasNext () ? it2.next () : null;
+            } else {
+                Comparable value = tup2 [col2];
+                group.clear ();
+                while (tup2 != null && tup2 [col2].compareTo (value) == 0) {
+                    group.add (tup2);
+                    tup2 = it2.hasNext () ? it2.next () : null;
+                } // while
+                while (tup1 != null && tup1 [col1].compareTo (value) == 0) {
+                    for (Comparable [] match : group) result.insert (concat (tup1, match, skipIndex));
+                    tup1 = it1.hasNext () ? it1.next () : null;
+                } // while
+            } // if
+        } // while
+
+        for (Table run : runs) run.drop ();
+    } // sortMergeJoin
+
+    /***************************************************************************
+     * Determine whether one of this table's indexes delivers its tuples in the
+     * order of the given column, i.e., it is a sorted map on a key consisting of
+     * just that column or a sorted secondary index on the column.
+     * @param col  the column
+     * @return  whether the index is ordered on col
+     */
+    private boolean orderedOn (int col)
+    {
+        return (index instanceof SortedMap && keyedOn (col)) || secondary.get (col) instanceof SortedMap;
+    } // orderedOn
+
+    /***************************************************************************
+     * Determine whether the primary key of this table consists of just the
+     * given column, so that the index maps the column's values to tuples.
+     * @param col  the column
+     * @return  whether col is the (whole) primary key
+     */
+    private boolean keyedOn (int col)
+    {
+        return key.length == 1 && columnPos (key [0]) == col;
+    } // keyedOn
+
+    /***************************************************************************
+     * Return an iterator over the tuples of this table in the order of the given
+     * column.  Tuples are read through the index if it is ordered on the column,
+     * sorted in memory if they fit in the memory budget, and otherwise sorted
+     * externally: sorted runs of the budget's size are written to temporary
+     * tables (added to runs, for the caller to drop) and merged.
+     * @param col     the column to order by
+     * @param budget  the number of tuples that may be sorted in memory
+     * @param runs    the list to add temporary run tables to
+     * @return  an iterator over the tuples in column order
+     */
+    @SuppressWarnings("unchecked")
+    private Iterator <Comparable []> sorted (final int col, int budget, List <Table> runs)
+    {
+        if (orderedOn (col)) return inOrder (col);
+
+        final Comparator <Comparable []> order = new Comparator <Comparable []> () {
+            public int compare (Comparable [] a, Comparable [] b) { return a [col].compareTo (b [col]); }
+        };
+
+        List <Comparable []> buf  = new ArrayList <Comparable []> ();
+        List <Table>         mine = new ArrayList <Table> ();
+        for (Comparable [] tup : tuples) {
+            buf.add (tup);
+            if (buf.size () == budget) {
+                mine.add (sortedRun (buf, order));
+                buf.clear ();
+            } // if
+        } // for
+        if (mine.isEmpty ()) {
+            Collections.sort (buf, order);
+            return buf.iterator ();
+        } // if
+        if ( ! buf.isEmpty ()) mine.add (sortedRun (buf, order));
+        runs.addAll (mine);
+
+        final PriorityQueue <Map.Entry <Comparable [], Iterator <Comparable []>>> heads =
+            new PriorityQueue <Map.Entry <Comparable [], Iterator <Comparable []>>> (mine.size (),
+                new Comparator <Map.Entry <Comparable [], Iterator <Comparable []>>> () {
+                    public int compare (Map.Entry <Comparable [], Iterator <Comparable []>> a,
+                                        Map.Entry <Comparable [], Iterator <Comparable []>> b)
+                    {
+                        return order.compare (a.getKey (), b.getKey ());
+                    } // compare
+                });
+        for (Table run : mine) {
+            Iterator <Comparable []> it = run.tuples.iterator ();
+            heads.add (new AbstractMap.SimpleEntry <Comparable [], Iterator <Comparable []>> (it.next (), it));
+        } // for
+
+        return new Iterator <Comparable []> () {
+            public boolean hasNext ()
+            {
+                return ! heads.isEmpty ();
+            } // hasNext
+
+            public Comparable [] next ()
+            {
+                Map.Entry <Comparable [], Iterator <Comparable []>> head = heads.poll ();
+                if (head.getValue ().hasNext ()) {
+                    heads.add (new AbstractMap.SimpleEntry <Comparable [], Iterator <Comparable []>> (head.getValue ().next (), head.getValue ()));
+                } // if
+                return head.getKey ();
+            } // next
+        };
+    } // sorted
+
+    /***************************************************************************
+     * Return an iterator that walks an ordered (primary or secondary) index on
+     * the given column, fetching each tuple by its rid (for a secondary index)
+     * only when the iterator reaches it, so the table is never copied.
+     * @param col  the column (orderedOn (col) must hold)
+     * @return  an iterator over the tuples in column order
+     */
+    @SuppressWarnings("unchecked")
+    private Iterator <Comparable []> inOrder (int col)
+    {
+        final boolean      primary = keyedOn (col) && index instanceof SortedMap;
+        final Iterator <?> values  = (primary ? index : secondary.get (col)).values ().iterator ();
+
+        return new Iterator <Comparable []> () {
+            Iterator <Long> rids = Collections.<Long> emptyIterator ();
+
+            public boolean hasNext ()
+            {
+                return rids.hasNext () || values.hasNext ();
+            } // hasNext
+
+            public Comparable [] next ()
+            {
+                if (primary) return (Comparable []) values.next ();
+                while ( ! rids.hasNext ()) rids = ((List <Long>) values.next ()).iterator ();
+                return tuples.fetch (rids.next ());
+            } // next
+        };
+    } // inOrder
+
+    /***************************************************************************
+     * Sort the given tuples and write them to a new temporary table (a run of
+     * an external sort).
+     * @param buf    the tuples to sort
+     * @param order  the order to sort them in
+     * @return  the temporary table holding the sorted run
+     */
+    private Table sortedRun (List <Comparable []> buf, Comparator <Comparable []> order)
+    {
+        Collections.sort (buf, order);
+        Table run = new Table (name + "_r" + count++, attribute, domain, key, indexType, normalizedKeys, true);
+        for (Comparable [] tup : buf) run.tuples.add (tup);
+        return run;
+    } // sortedRun
+
+    /***************************************************************************
+     * Split the tuples of this table into n temporary tables according to a
+     * hash of their value in the given column.  The hash code is mixed with a
+     * seed for the level (murmur3's 64-bit finalizer), so the hash of one level
+     * is independent of the last and a partition is partitioned again evenly.
+     * @param col    the column to partition on
+     * @param n      the number of partitions
+     * @param depth  the level of partitioning
+     * @return  the partitions
+     */
+    private Table [] partition (int col, int n, int depth)
+    {
+        Table [] part = new Table [n];
+        for (int i = 0; i < n; i++) {
+            part [i] = new Table (name + "_p" + count++, attribute, domain, key, indexType, normalizedKeys, true);
+            part [i].joinBudget = joinBudget;
+        } // for
+
+        for (Comparable [] tup : tuples) {
+            long h = tup [col].hashCode () ^ PARTITION_SEED [depth];
+            h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+            h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            part [(int) ((h >>> 1) % n)].tuples.add (tup);
+        } // for
+        return part;
+    } // partition
+
+    /***************************************************************************
+     * Concatenate a tuple of this table with a tuple of table2 to form a joined
+     * tuple, leaving out the given column of the second.
+     * @param tup1       the lhs tuple
+     * @param tup2       the rhs tuple
+     * @param skipIndex  the column of tup2 to leave out (-1 => none)
+     * @return  the joined tuple
+     */
+    private static Comparable [] concat (Comparable [] tup1, Comparable [] tup2, int skipIndex)
+    {
+        Comparable [] tup = new Comparable [tup1.length + tup2.length - (skipIndex < 0 ? 0 : 1)];
+        System.arraycopy (tup1, 0, tup, 0, tup1.length);
+        for (int j = 0, k = tup1.length; j < tup2.length; j++) {
+            if (j != skipIndex) tup [k++] = tup2 [j];
+        } // for
+        return tup;
+    } // concat
+
+    /***************************************************************************
+     * Set the memory budget of joins run on this table (this.join (...)): the
+     * number of tuples a hash join may hold in memory before it partitions its
+     * inputs to disk, and the size of the runs when an input must be sorted.
+     * @param tuples  the maximum number of tuples in an in-memory hash table
+     */
+    public void setJoinBudget (int tuples)
+    {
+        joinBudget = Math.max (1, tuples);
+    } // setJoinBudget
+
+    /***************************************************************************
+     * Build an index key (in this table's form) from the given attribute values.
+     * @param keyVal  the attribute values of the key
+     * @return  the index key
+     */
+    private KeyType key (Comparable [] keyVal)
+    {
+        return normalizedKeys ? new NormalizedKey (keyVal) : KeyType.of (keyVal);
+    } // key
+
+    /***************************************************************************
+     * Build an index key (in this table's form) from a single attribute value.
+     * @param value  the attribute value
+     * @return  the index key
+     */
+    private KeyType key (Comparable value)
+    {
+        return normalizedKeys ? new NormalizedKey (new Comparable [] { value }) : KeyType.of (value);
+    } // key
+
+    /***************************************************************************
+     * Drop this (temporary) table, deleting its data file.
+     */
+    private void drop ()
+    {
+        tuples.drop ();
+    } // drop
 /***************************************************************************
      * Insert a tuple to the table.
      * #usage movie.insert ("'Star_Wars'", 1977, 124, "T", "Fox", 12345)
@@ -363,17 +908,359 @@ public class Table
         out.println ("DML> insert into " + name + " values ( " + Arrays.toString (tup) + " )");
 
         if (typeCheck (tup, domain)) {
-            tuples.add (tup);
+            if ( ! fitsIndexes (tup) || ! tuples.add (tup)) return false;
             Comparable [] keyVal = new Comparable [key.length];
             int []        cols   = match (key);
             for (int j = 0; j < keyVal.length; j++) keyVal [j] = tup [cols [j]];
-            index.put (new KeyType (keyVal), tup);
+            index.put (key (keyVal), tup);
+            if ( ! secondary.isEmpty ()) {
+                long rid = tuples.getRid (tuples.size () - 1);
+                for (Map.Entry <Integer, Map <KeyType, List <Long>>> e : secondary.entrySet ()) {
+                    addRid (e.getValue (), tup [e.getKey ()], rid);
+                } // for
+            } // if
             return true;
         } else {
             return false;
         } // if
     } // insert
 
+    /***************************************************************************
+     * Delete the tuples satisfying the given condition, removing them from the
+     * data file and from every index in place (rather than rebuilding).  The
+     * tuples to check are found through a secondary index when the condition
+     * allows it (see candidateRids), otherwise by scanning.
+     * #usage movie.delete ("year < 1950")
+     * @param condition  the check condition for tuples
+     * @return  the number of tuples deleted
+     */
+    public int delete (String condition)
+    {
+        out.println ("DML> delete from " + name + " where " + condition);
+
+        Predicate pred = Predicate.compile (infix2postfix (condition), attribute, domain);
+        if (pred == null) return 0;
+
+        List <Long>          rids = new ArrayList <Long> ();
+        List <Comparable []> tups = new ArrayList <Comparable []> ();
+        List <Long>          cand = candidateRids (pred);
+        if (cand != null) {
+            for (long rid : cand) {
+                Comparable [] tup = tuples.fetch (rid);
+                if (pred.eval (tup)) { rids.add (rid); tups.add (tup); }
+            } // for
+        } else {
+            int i = 0;
+            for (Comparable [] tup : tuples) {
+                if (pred.eval (tup)) { rids.add (tuples.getRid (i)); tups.add (tup); }
+                i++;
+            } // for
+        } // if
+
+        int [] cols = match (key);
+        for (int t = 0; t < tups.size (); t++) {
+            Comparable [] tup    = tups.get (t);
+            Comparable [] keyVal = new Comparable [key.length];
+            for (int j = 0; j < keyVal.length; j++) keyVal [j] = tup [cols [j]];
+            index.remove (key (keyVal));
+            for (Map.Entry <Integer, Map <KeyType, List <Long>>> e : secondary.entrySet ()) {
+                removeRid (e.getValue (), tup [e.getKey ()], rids.get (t));
+            } // for
+        } // for
+
+        long [] victims = new long [rids.size ()];
+        for (int t = 0; t < victims.length; t++) victims [t] = rids.get (t);
+        return tuples.delete (victims);
+    } // delete
+
+    /***************************************************************************
+     * Return the record ids of the tuples that may satisfy the predicate, taken
+     * from a secondary index along the access path chosen by access (with the
+     * primary index excluded, as it maps keys to tuples rather than rids).
+     * @param pred  the compiled condition
+     * @return  the candidate record ids (null if the table must be scanned)
+     */
+    @SuppressWarnings("unchecked")
+    private List <Long> candidateRids (Predicate pred)
+    {
+        Access a = access (pred, false);
+        if (a.kind == Access.SCAN) return null;
+
+        List <Long> rids = new ArrayList <Long> ();
+        if (a.kind == Access.LOOKUP) {
+            List <Long> v = secondary.get (a.col).get (key (a.lo));
+            if (v != null) rids.addAll (v);
+        } else {
+            for (List <Long> v : inRange ((SortedMap <KeyType, List <Long>>) secondary.get (a.col), a.lo, a.hi)) rids.addAll (v);
+        } // if
+        return rids;
+    } // candidateRids
+
+    /***************************************************************************
+     * Create a secondary index on the given attribute, mapping each of its values
+     * to the record ids (see FileList.getRid) of the tuples having it.  The index
+     * is built from the stored tuples and kept up to date by insert and delete;
+     * select and join use it.  A BPTREE or DISK_BPTREE index also serves range
+     * conditions.  A DISK_BPTREE index is kept in a temporary file (name_attr.idx)
+     * rather than on the heap, and cannot be created if a value is too long for
+     * its keys (see DiskBpTree.MAX_KEY); insert then rejects such values.
+     * #usage movie.createIndex ("year", IndexType.BPTREE)
+     * @param attr  the attribute to index
+     * @param kind  the kind of map to use for the index
+     * @return  whether the index was created
+     */
+    public boolean createIndex (String attr, IndexType kind)
+    {
+        out.println ("DDL> create index on " + name + " (" + attr + ") using " + kind);
+
+        int col = columnPos (attr);
+        if (col < 0) return false;
+
+        Map <KeyType, List <Long>> idx = (kind == IndexType.DISK_BPTREE)
+                                       ? DiskBpTree.ridIndex (name + "_" + attr, new Class [] { domain [col] })
+                                       : newIndex (kind);
+        if (kind == IndexType.BPTREE) {                    // group the record ids, then bulk load
+            Map <KeyType, List <Long>> rids = new HashMap <KeyType, List <Long>> ();
+            for (int i = 0; i < tuples.size (); i++) addRid (rids, tuples.get (i) [col], tuples.getRid (i));
+            load (idx, new ArrayList <Map.Entry <KeyType, List <Long>>> (rids.entrySet ()));
+        } else if (idx instanceof DiskBpTree.RidIndex) {
+            DiskBpTree.RidIndex ridx = (DiskBpTree.RidIndex) idx;
+            for (int i = 0; i < tuples.size (); i++) {
+                KeyType k = key (tuples.get (i) [col]);
+                if ( ! ridx.fits (k)) {
+                    out.println ("Table.createIndex: a value of " + attr + " is too long for a " + kind + " index");
+                    ridx.drop ();
+                    return false;
+                } // if
+                ridx.add (k, tuples.getRid (i));
+            } // for
+        } else {
+            for (int i = 0; i < tuples.size (); i++) addRid (idx, tuples.get (i) [col], tuples.getRid (i));
+        } // if
+        Map <KeyType, List <Long>> old = secondary.put (col, idx);
+        if (old instanceof DiskBpTree.RidIndex) ((DiskBpTree.RidIndex) old).drop ();
+        return true;
+    } // createIndex
+
+    /***************************************************************************
+     * Check that the tuple's values fit in the table's DISK_BPTREE indexes, which
+     * limit the length of their keys, so that a tuple is stored only if it can be
+     * indexed.
+     * @param tup  the tuple to check
+     * @return  whether every secondary index can hold the tuple
+     */
+    private boolean fitsIndexes (Comparable [] tup)
+    {
+        for (Map.Entry <Integer, Map <KeyType, List <Long>>> e : secondary.entrySet ()) {
+            if (e.getValue () instanceof DiskBpTree.RidIndex &&
+                ! ((DiskBpTree.RidIndex) e.getValue ()).fits (key (tup [e.getKey ()]))) {
+                out.println ("Table.insert: the " + attribute [e.getKey ()] + " value is too long for its index");
+                return false;
+            } // if
+        } // for
+        return true;
+    } // fitsIndexes
+
+    /***************************************************************************
+     * Create an empty secondary index of the given kind.
+     * @param kind  the kind of map to use for the index
+     * @return  the empty index
+     */
+    @SuppressWarnings("unchecked")
+    private static Map <KeyType, List <Long>> newIndex (IndexType kind)
+    {
+        return newIndex (kind, (Class <List <Long>>) (Class) List.class);
+    } // newIndex
+
+    /***************************************************************************
+     * Create an empty (primary or secondary) index of the given kind, which is
+     * held on the heap (a DISK_BPTREE is made by DiskBpTree.ridIndex).
+     * @param kind    the kind of map to use for the index
+     * @param classV  the class of the index's values
+     * @return  the empty index
+     */
+    private static <V> Map <KeyType, V> newIndex (IndexType kind, Class <V> classV)
+    {
+        switch (kind) {
+        case BPTREE:  return new BpTree <KeyType, V> (KeyType.class, classV);
+        case EXTHASH: return new ExtHash <KeyType, V> (KeyType.class, classV, 16);
+        case LINHASH: return new LinHash <KeyType, V> (KeyType.class, classV, 16);
+        default:      throw new IllegalArgumentException ("Table.newIndex: " + kind + " maps values to record ids only");
+        } // switch
+    } // newIndex
+
+    /***************************************************************************
+     * Add a record id to the list of record ids a secondary index keeps for the
+     * given value (a RidIndex keeps one entry per record id instead).
+     * @param idx    the secondary index
+     * @param value  the attribute value
+     * @param rid    the record id of a tuple having the value
+     */
+    private void addRid (Map <KeyType, List <Long>> idx, Comparable value, long rid)
+    {
+        KeyType k = key (value);
+        if (idx instanceof DiskBpTree.RidIndex) {
+            ((DiskBpTree.RidIndex) idx).add (k, rid);
+            return;
+        } // if
+        List <Long> rids = idx.get (k);
+        if (rids == null) idx.put (k, rids = new ArrayList <Long> (2));
+        rids.add (rid);
+    } // addRid
+
+    /***************************************************************************
+     * Remove a record id from the list of record ids a secondary index keeps for
+     * the given value, removing the value from the index once its list is empty.
+     * @param idx    the secondary index
+     * @param value  the attribute value
+     * @param rid    the record id of a tuple having the value
+     */
+    private void removeRid (Map <KeyType, List <Long>> idx, Comparable value, long rid)
+    {
+        KeyType k = key (value);
+        if (idx instanceof DiskBpTree.RidIndex) {
+            ((DiskBpTree.RidIndex) idx).remove (k, rid);
+            return;
+        } // if
+        List <Long> rids = idx.get (k);
+        if (rids == null) return;
+        rids.remove (Long.valueOf (rid));
+        if (rids.isEmpty ()) idx.remove (k);
+    } // removeRid
+
+    /***************************************************************************
+     * Return the tuples whose value in the given column equals value, looking
+     * them up in the primary index (if col is the key) or a secondary index.
+     * @param col    the column
+     * @param value  the value to look up
+     * @return  the matching tuples (null if col is not indexed)
+     */
+    private List <Comparable []> lookup (int col, Comparable value)
+    {
+        KeyType k = key (value);
+        if (keyedOn (col)) {
+            Comparable [] tup = index.get (k);
+            return (tup == null) ? Collections.<Comparable []> emptyList () : Collections.singletonList (tup);
+        } // if
+
+        Map <KeyType, List <Long>> idx = secondary.get (col);
+        if (idx == null) return null;
+        List <Long>          rids = idx.get (k);
+        List <Comparable []> tups = new ArrayList <Comparable []> ();
+        if (rids != null) for (long rid : rids) tups.add (tuples.fetch (rid));
+        return tups;
+    } // lookup
+
+    /***************************************************************************
+     * Return the tuples whose value in the given column lies in [lo, hi], taken
+     * in column order from an ordered (primary or secondary) index on col (see
+     * inRange).
+     * @param col  the column (orderedOn (col) must hold)
+     * @param lo   the lower bound (null => none)
+     * @param hi   the upper bound (null => none)
+     * @return  the tuples in range
+     */
+    @SuppressWarnings("unchecked")
+    private List <Comparable []> range (int col, Comparable lo, Comparable hi)
+    {
+        boolean                     primary = keyedOn (col) && index instanceof SortedMap;
+        SortedMap <KeyType, Object> map     = (SortedMap <KeyType, Object>) (primary ? index : secondary.get (col));
+        List <Comparable []>        tups    = new ArrayList <Comparable []> ();
+        for (Object v : inRange (map, lo, hi)) {
+            if (primary) tups.add ((Comparable []) v);
+            else for (long rid : (List <Long>) v) tups.add (tuples.fetch (rid));
+        } // for
+        return tups;
+    } // range
+
+    /***************************************************************************
+     * Return the values of an ordered index whose keys lie in [lo, hi], in key
+     * order, using subMap, headMap or tailMap (which exclude hi itself, so its
+     * value is added separately).
+     * @param map  the ordered index
+     * @param lo   the lower bound (null => none)
+     * @param hi   the upper bound (null => none)
+     * @return  the values in range
+     */
+    @SuppressWarnings("unchecked")
+    private <V> List <V> inRange (SortedMap <KeyType, V> map, Comparable lo, Comparable hi)
+    {
+        List <V> values = new ArrayList <V> ();
+        if (lo != null && hi != null && lo.compareTo (hi) > 0) return values;
+
+        KeyType loKey = (lo == null) ? null : key (lo);
+        KeyType hiKey = (hi == null) ? null : key (hi);
+        SortedMap <KeyType, V> sub;
+        if (lo != null && hi != null) sub = map.subMap (loKey, hiKey);
+        else if (lo != null)          sub = map.tailMap (loKey);
+        else if (hi != null)          sub = map.headMap (hiKey);
+        else                          sub = map;
+
+        values.addAll (sub.values ());
+        if (hi != null) {
+            V v = map.get (hiKey);
+            if (v != null) values.add (v);
+        } // if
+        return values;
+    } // inRange
+
+    /***************************************************************************
+     * Rebuild the index from the stored tuples (after reopening the table),
+     * scanning the data file sequentially.
+     */
+    private void rebuildIndex ()
+    {
+        int [] cols = match (key);
+        List <Map.Entry <KeyType, Comparable []>> entries = new ArrayList <> (tuples.size ());
+        for (Comparable [] tup : tuples) {
+            Comparable [] keyVal = new Comparable [key.length];
+            for (int j = 0; j < keyVal.length; j++) keyVal [j] = tup [cols [j]];
+            entries.add (new AbstractMap.SimpleEntry <KeyType, Comparable []> (key (keyVal), tup));
+        } // for
+        load (index, entries);
+        out.println ("DDL> reopen table " + name + " with " + tuples.size () + " tuples");
+    } // rebuildIndex
+
+    /***************************************************************************
+     * Fill an index with the given entries.  An empty BpTree is bulk loaded
+     * from the entries sorted by key (for a key occurring more than once the
+     * last entry wins, as with put); other maps get the entries one by one.
+     * @param idx      the index to fill
+     * @param entries  the key-value pairs to put in it (may be reordered)
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> void load (Map <KeyType, V> idx, List <Map.Entry <KeyType, V>> entries)
+    {
+        if ( ! (idx instanceof BpTree) || ! idx.isEmpty ()) {
+            for (Map.Entry <KeyType, V> e : entries) idx.put (e.getKey (), e.getValue ());
+            return;
+        } // if
+
+        entries.sort (Map.Entry.comparingByKey ());        // stable, so equal keys keep their order
+        int n = 0;
+        for (int i = 0; i < entries.size (); i++) {
+            if (n > 0 && entries.get (n - 1).getKey ().compareTo (entries.get (i).getKey ()) == 0) n--;
+            entries.set (n++, entries.get (i));
+        } // for
+        ((BpTree <KeyType, V>) idx).bulkLoad (entries.subList (0, n).iterator (), INDEX_FILL);
+    } // load
+
+    /***************************************************************************
+     * Compute a fingerprint of the table's schema (attribute names, domains and
+     * key), used to check that a data file was written for this schema.
+     * @return  the schema fingerprint
+     */
+    long fingerprint ()
+    {
+        long h = 17;
+        for (int j = 0; j < attribute.length; j++) {
+            h = 31 * h + attribute [j].hashCode ();
+            h = 31 * h + domain [j].getName ().hashCode ();
+        } // for
+        for (String k : key) h = 31 * h + k.hashCode ();
+        return h;
+    } // fingerprint
+
     /***************************************************************************
      * Get the name of the table.
      * @return  the table's name
@@ -517,92 +1404,6 @@ public class Table
         return colPos;
     } // match
 
-    /***************************************************************************
-     * Check whether the tuple satisfies the condition.  Use a stack-based postfix
-     * expression evaluation algorithm.evalTup
-     * @param postfix  the postfix expression for the condition
-     * @param tup      the tuple to check
-     * @return whether to keep the tuple
-     * @author Ryan Gell
-     */
-    @SuppressWarnings("unchecked")
-    private boolean evalTup (String [] postfix, Comparable [] tup)
-    {
-        if (postfix == null) return true;
-        Stack <Comparable> s = new Stack <Comparable> ();
-	//stack-based postfix evaluation
-        for (String token : postfix) {
-	//if it is a comparison operator, we need to pop two strings
-		if(isComparison(token)){
-			checkString(s.peek());
-			String one = (String)s.pop();
-			checkString(s.peek());
-			String two = (String)s.pop();
-		//if the first string is an attribute
-			if(inAttribute(one)){
-		//we get where the attribute is in the database domain
-				int pos = attributeIndex(one);
-		//we turn the string into a type and grab the attribute from the tup 
-				s.push(compare(tup[pos],token,String2Type.cons(domain[pos],two)));
-			}//if
-		//As above but with second string
-			else if (inAttribute(two)){
-				int pos = attributeIndex(two);
-				s.push(compare(String2Type.cons(domain[pos],one),token,tup[pos]));
-			}//else if
-		//If there was no attribute in the operation string, exit as the
-		//Formula is ill formed
-			else{System.out.println("Select string is ill-formed");System.exit(0);}//else
-			
-		}//if
-		//if we have an 'or' we need to pop two booleans and push them or'd
-		else if(token.equals("|")){
-			checkBool(s.peek());
-			Boolean	one = (Boolean)s.pop();
-			checkBool(s.peek());
-			Boolean two = (Boolean)s.pop();	
-			s.push(one||two);
-		}//else if
-		//if we have an 'or' we need to pop two booleans and push them or'd
-		else if(token.equals("&")){
-			checkBool(s.peek());
-			Boolean	one = (Boolean)s.pop();
-			checkBool(s.peek());
-			Boolean two = (Boolean)s.pop();
-			s.push(one&&two);
-		}//else if
-		//Otherwise we just have a string token, so we push it into the stack
-		else{
-			s.push(token);		
-		}//elses
-        } // for		
-	checkBool(s.peek());
-	//Return the last Boolean in the stack, e.g. the answer
-        return (Boolean) s.pop ();
-    	} // evalTup
-     /**
-     * Check Comparable object is a Boolean
-     * @param c  the object to check
-     * @author Ryan Gell
-     */	
-	private void checkBool(Comparable c){
-		if(!(c instanceof Boolean)){
-			System.out.println("Input to Select ill-formed");
-			System.exit(0);
-		}
-	}
-     /**
-     * Check Comparable object is a String
-     * @param c  the object to check
-     * @author Ryan Gell
-     */	
-
-	private void checkString(Comparable c){
-		if(!(c instanceof String)){
-			System.out.println("Input to Select ill-formed");
-			System.exit(0);
-		}
-	}
      /**
      * Check if the string is an attribute in the database
      * @param s  the string we want to check
@@ -658,61 +1459,23 @@ public class Table
      */
     byte [] pack (Comparable [] tup)
     {
-        byte [] record = new byte [tupleSize ()];
-        byte [] b      = null;
-        int     s      = 0;
-        int     i      = 0;
-
-		for (int j = 0; j < domain.length; j++) {
-			if(domain [j].getName().equalsIgnoreCase("java.lang.Integer")){
-				b = Conversions.int2ByteArray ((Integer) tup [j]);
-				s = 4;
-			}
-			else if(domain [j].getName().equalsIgnoreCase("java.lang.Short")){
-				b = Conversions.short2ByteArray((Short) tup[j]);
-				s = 2;			
-			}
-			else if(domain [j].getName().equalsIgnoreCase("java.lang.String")){
-				b = ((String) tup [j]).getBytes ();
-				s = 64;
-			}
-			else if(domain [j].getName().equalsIgnoreCase("java.lang.Double")){
-				b = Conversions.double2ByteArray((Double) tup[j]);
-				s = 8;			
-			}
-			else if(domain [j].getName().equalsIgnoreCase("java.lang.Float")){
-				b = Conversions.float2ByteArray((Float) tup[j]);
-				s = 4;			
-			}
-			else if(domain [j].getName().equalsIgnoreCase("java.lang.Long")){
-				b = Conversions.long2ByteArray((Long) tup[j]);
-				s = 8;			
-			}
-			else if(domain [j].getName().equalsIgnoreCase("java.lang.Character")){
-			    b[0] = (byte) ((Character) tup[j] & 0xff);
-				s = 1;			
-			}
-			else{
-				System.out.println("cannot recognize type -> cannot pack");
-			}
-			
-			
-			if (b == null) {
-				out.println ("Table.pack: byte array b is null");
-				return null;
-			} // if
-			for (int k = 0; k < s; k++) {
-				if(k<b.length){
-					record [i++] = b [k];
-				}
-				else{
-					record[i++] = (byte)'\0';
-				}
-			}
-		} // for
+        byte [] record = new byte [tupleSize (tup, null)];
+        codec.encode (tup, ByteBuffer.wrap (record), 0, null);
         return record;
     } // pack
-     
+
+    /***************************************************************************
+     * Pack tuple tup directly into a byte buffer (e.g., a page) at offset off.
+     * @param tup    the array of attribute values forming the tuple
+     * @param buf    the byte buffer to pack the tuple into
+     * @param off    the offset within buf at which the record starts
+     * @param spill  where to put long Strings (null => keep them inline)
+     * @return  the number of bytes written
+     */
+    int pack (Comparable [] tup, ByteBuffer buf, int off, TupleCodec.Overflow spill)
+    {
+        return codec.encode (tup, buf, off, spill);
+    } // pack
 
     /***************************************************************************
      * Unpack the record/byte-buffer (array of bytes) to reconstruct a tuple.
@@ -722,66 +1485,33 @@ public class Table
      */
     Comparable [] unpack (byte [] record)
     {
-	Comparable[] result = new Comparable[domain.length];
-	ByteBuffer bb = ByteBuffer.wrap(record);
-
-	for(int j=0; j < domain.length; j++) {
-	    if( domain [j].getName().equalsIgnoreCase("java.lang.Integer") ) {
-		result[j] = bb.getInt();
-	    } else if( domain [j].getName().equalsIgnoreCase("java.lang.Short") ) {
-		result[j] = bb.getShort();
-	    } else if( domain [j].getName().equalsIgnoreCase("java.lang.Double") ) {
-		result[j] = bb.getDouble();
-	    } else if( domain [j].getName().equalsIgnoreCase("java.lang.Float") ) {
-		result[j] = bb.getFloat();
-	    } else if( domain [j].getName().equalsIgnoreCase("java.lang.Long") ) {
-		result[j] = bb.getLong();
-	    } else if( domain [j].getName().equalsIgnoreCase("java.lang.Character") ) {
-		result[j] = (char) bb.get();
-	    } else if( domain [j].getName().equalsIgnoreCase("java.lang.String") ) {
-		byte[] temp = new byte[64];
-		if(bb.remaining() < 64)
-		    temp = new byte[bb.remaining()];
-		bb.get(temp);
-		int i=0;
-		for(; i < 64 && temp[i] !='\0'; i++);//fixes alignment problems if string length is less than 15 characters
-		byte[] temp2 = new byte[i];
-		for(i=0; i < 64 && temp[i] !='\0'; i++)
-		    temp2[i] = temp[i];
-		result[j] = new String(temp2);
-	    } else {
-		System.out.println("cannot recognize type -> cannot pack");
-	    }
-	}//for
-
-        return result;
+        return codec.decode (ByteBuffer.wrap (record), 0, null);
     } // unpack
 
+    /***************************************************************************
+     * Unpack the record held in a byte buffer (e.g., a page) at offset off to
+     * reconstruct a tuple.
+     * @param buf  the byte buffer in which the tuple is packed
+     * @param off  the offset within buf at which the record starts
+     * @param src  where long Strings were put
+     * @return  an unpacked tuple
+     */
+    Comparable [] unpack (ByteBuffer buf, int off, TupleCodec.Overflow src)
+    {
+        return codec.decode (buf, off, src);
+    } // unpack
 
     /***************************************************************************
-     * Determine the size of tuples in this table in terms of the number of bytes
-     * required to store it in a record/byte-buffer.
-     * @return  the size of packed-tuples in bytes
+     * Determine the size of a tuple in this table in terms of the number of bytes
+     * required to store it in a record/byte-buffer.  Strings are variable length.
+     * @param tup    the tuple to be packed
+     * @param spill  where long Strings will be put (null => keep them inline)
+     * @return  the size of the packed tuple in bytes
      * Minh Pham
      */
-    private int tupleSize ()
+    int tupleSize (Comparable [] tup, TupleCodec.Overflow spill)
     {
-        int s = 0;
-
-	 	for (int j = 0; j < domain.length; j++) {
-			if(domain [j].getName ().equalsIgnoreCase("java.lang.Integer")) s+=4;
-			else if(domain [j].getName ().equalsIgnoreCase("java.lang.Long")) s+=8;
-			else if(domain [j].getName ().equalsIgnoreCase("java.lang.Short")) s+=2;
-			else if(domain [j].getName ().equalsIgnoreCase("java.lang.Character")) s++;
-			else if(domain [j].getName ().equalsIgnoreCase("java.lang.Double")) s+=8;
-			else if(domain [j].getName ().equalsIgnoreCase("java.lang.Float")) s+=4;
-			else if(domain [j].getName ().equalsIgnoreCase("java.lang.String")) s+=64;
-			else{
-				System.out.println("cannot recognize domain");
-			}// if clause
-		}// for loop
-		
-        return s;
+        return codec.size (tup, spill);
     } // tupleSize
     /**
     * Returns the value held in the key domains of a tuple
@@ -797,7 +1527,7 @@ public class Table
     *
     */
     public Comparable[] getTupFromKey(Comparable[] key){
-    	return index.get(new KeyType(key));
+    	return index.get(key(key));
     }
 
     //------------------------ Static Utility Methods --------------------------
@@ -838,25 +1568,6 @@ public class Table
                op.equals (">")  || op.equals (">=");
     } // isComparison
 
-    /***************************************************************************
-     * Compare values x and y according to the comparison operator.
-     * @param   x   the first operand
-     * @param   op  the comparison operator
-     * @param   y   the second operand
-     * @return  whether the comparison evaluates to true or false
-     */
-    @SuppressWarnings("unchecked")
-    private static boolean compare (Comparable x, String op , Comparable y)
-    {
-        if(op.equals("==")) return x.compareTo (y) == 0;
-        else if(op.equals("!=")) return x.compareTo (y) != 0;
-        else if(op.equals("<")) return x.compareTo (y) < 0;
-        else if(op.equals("<=")) return x.compareTo (y) <= 0;
-        else if(op.equals(">"))return x.compareTo (y) > 0;
-        else if(op.equals(">="))return x.compareTo (y) >= 0;
-        else { out.println ("compare: error - unexpected op"); return false; }
-    } // compare
-
     /***************************************************************************
      * Convert an untokenized infix expression to a tokenized postfix expression.
      * This implementation does not handle parentheses ( ).
@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * @file  TupleCodec.java
+ *
+ * @author   agent
+ */
+
+import java.nio.ByteBuffer;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*******************************************************************************
+ * This class packs tuples into records and unpacks records back into tuples for
+ * one particular schema.  The per-column encoders/decoders are chosen once, when
+ * the codec is built from the schema's domains, so packing a tuple does no type
+ * dispatch on class names and writes straight into the caller's byte buffer.
+ * Numbers are stored big-endian (see Conversions) regardless of the buffer's
+ * byte order.
+ * <p>
+ * A record holds the fixed-size columns first, at precomputed offsets, followed
+ * by the String columns in order.  Each String is stored as a 2-byte length and
+ * its UTF-8 bytes; a String longer than INLINE_MAX bytes may instead be written
+ * to overflow pages, leaving only a stub (marker, length, first page) inline.
+ */
+public class TupleCodec
+{
+    /** The longest String (in bytes) stored inline when overflow is available.
+     */
+    public static final int INLINE_MAX = 512;
+
+    /** Length marker for a String stored on overflow pages.
+     */
+    private static final int OVERFLOW = 0xffff;
+
+    /** The number of bytes in an overflow stub (marker, length, first page).
+     */
+    private static final int STUB_SIZE = 10;
+
+    /***************************************************************************
+     * Storage for values too long to be kept inline (e.g., FileList's overflow
+     * pages).
+     */
+    public interface Overflow
+    {
+        /** Store the value's bytes and return the number of its first page.
+         */
+        int write (byte [] value);
+
+        /** Return the length bytes stored starting at the given page.
+         */
+        byte [] read (int page, int length);
+    } // Overflow interface
+
+    /***************************************************************************
+     * This inner class defines the encoder/decoder for one fixed-size column.
+     */
+    private static abstract class Column
+    {
+        final int size;
+        Column (int _size)
+        {
+            size = _size;
+        } // constructor
+        abstract void encode (Comparable v, ByteBuffer buf, int off);
+        abstract Comparable decode (ByteBuffer buf, int off);
+    } // Column inner class
+
+    private static final class ByteColumn extends Column
+    {
+        ByteColumn () { super (1); }
+        void encode (Comparable v, ByteBuffer buf, int off) { buf.put (off, (Byte) v); }
+        Comparable decode (ByteBuffer buf, int off) { return buf.get (off); }
+    } // ByteColumn inner class
+
+    private static final class ShortColumn extends Column
+    {
+        ShortColumn () { super (2); }
+        void encode (Comparable v, ByteBuffer buf, int off) { Conversions.short2ByteBuffer ((Short) v, buf, off); }
+        Comparable decode (ByteBuffer buf, int off) { return Conversions.byteBuffer2Short (buf, off); }
+    } // ShortColumn inner class
+
+    private static final class IntColumn extends Column
+    {
+        IntColumn () { super (4); }
+        void encode (Comparable v, ByteBuffer buf, int off) { Conversions.int2ByteBuffer ((Integer) v, buf, off); }
+        Comparable decode (ByteBuffer buf, int off) { return Conversions.byteBuffer2Int (buf, off); }
+    } // IntColumn inner class
+
+    private static final class LongColumn extends Column
+    {
+        LongColumn () { super (8); }
+        void encode (Comparable v, ByteBuffer buf, int off) { Conversions.long2ByteBuffer ((Long) v, buf, off); }
+        Comparable decode (ByteBuffer buf, int off) { return Conversions.byteBuffer2Long (buf, off); }
+    } // LongColumn inner class
+
+    private static final class FloatColumn extends Column
+    {
+        FloatColumn () { super (4); }
+        void encode (Comparable v, ByteBuffer buf, int off) { Conversions.float2ByteBuffer ((Float) v, buf, off); }
+        Comparable decode (ByteBuffer buf, int off) { return Conversions.byteBuffer2Float (buf, off); }
+    } // FloatColumn inner class
+
+    private static final class DoubleColumn extends Column
+    {
+        DoubleColumn () { super (8); }
+        void encode (Comparable v, ByteBuffer buf, int off) { Conversions.double2ByteBuffer ((Double) v, buf, off); }
+        Comparable decode (ByteBuffer buf, int off) { return Conversions.byteBuffer2Double (buf, off); }
+    } // DoubleColumn inner class
+
+    private static final class CharColumn extends Column
+    {
+        CharColumn () { super (1); }
+        void encode (Comparable v, ByteBuffer buf, int off) { buf.put (off, (byte) ((Character) v).charValue ()); }
+        Comparable decode (ByteBuffer buf, int off) { return (char) (buf.get (off) & 0xff); }
+    } // CharColumn inner class
+
+    /** The encoder/decoder for each fixed-size column (null for Strings).
+     */
+    private final Column [] column;
+
+    /** The byte offset of each fixed-size column within a record.
+     */
+    private final int [] offset;
+
+    /** The positions of the String columns, in storage order.
+     */
+    private final int [] var;
+
+    /** The number of bytes taken by the fixed-size columns.
+     */
+    private final int fixedSize;
+
+    /***************************************************************************
+     * Build a codec for tuples with the given domains.
+     * @param domain  the attribute domains (data types) of the schema
+     */
+    public TupleCodec (Class [] domain)
+    {
+        column = new Column [domain.length];
+        offset = new int [domain.length];
+        int s  = 0;
+        int v  = 0;
+        for (int j = 0; j < domain.length; j++) {
+            if (domain [j] == String.class) { v++; continue; }
+            column [j] = columnFor (domain [j]);
+            offset [j] = s;
+            s += column [j].size;
+        } // for
+        fixedSize = s;
+        var       = new int [v];
+        for (int j = 0, k = 0; j < domain.length; j++) if (column [j] == null) var [k++] = j;
+    } // TupleCodec
+
+    /***************************************************************************
+     * Return the number of bytes tuple tup occupies when packed.
+     * @param tup    the tuple to pack
+     * @param spill  the overflow storage long Strings will go to (null => inline)
+     * @return  the record size
+     */
+    public int size (Comparable [] tup, Overflow spill)
+    {
+        int s = fixedSize;
+        for (int j : var) {
+            int n = utf8Length ((String) tup [j]);
+            s += (spill != null && n > INLINE_MAX) ? STUB_SIZE : 2 + n;
+        } // for
+        return s;
+    } // size
+
+    /***************************************************************************
+     * Pack tuple tup into buf starting at byte offset off.
+     * @param tup    the tuple to pack
+     * @param buf    the buffer to pack it into
+     * @param off    the offset of the record within buf
+     * @param spill  the overflow storage for long Strings (null => inline)
+     * @return  the number of bytes written
+     */
+    public int encode (Comparable [] tup, ByteBuffer buf, int off, Overflow spill)
+    {
+        for (int j = 0; j < column.length; j++) {
+            if (column [j] != null) column [j].encode (tup [j], buf, off + offset [j]);
+        } // for
+        int pos = off + fixedSize;
+        for (int j : var) pos = encodeString ((String) tup [j], buf, pos, spill);
+        return pos - off;
+    } // encode
+
+    /***************************************************************************
+     * Unpack the record starting at byte offset off of buf into a tuple.
+     * @param buf  the buffer holding the record
+     * @param off  the offset of the record within buf
+     * @param src  the overflow storage long Strings were written to
+     * @return  the unpacked tuple
+     */
+    public Comparable [] decode (ByteBuffer buf, int off, Overflow src)
+    {
+        Comparable [] tup = new Comparable [column.length];
+        for (int j = 0; j < column.length; j++) {
+            if (column [j] != null) tup [j] = column [j].decode (buf, off + offset [j]);
+        } // for
+        int pos = off + fixedSize;
+        for (int j : var) {
+            int n = Conversions.byteBuffer2Short (buf, pos) & 0xffff;
+            if (n == OVERFLOW) {
+                int len  = Conversions.byteBuffer2Int (buf, pos + 2);
+                int page = Conversions.byteBuffer2Int (buf, pos + 6);
+                tup [j]  = new String (src.read (page, len), UTF_8);
+                pos += STUB_SIZE;
+            } else {
+                if (buf.hasArray ()) {
+                    tup [j] = new String (buf.array (), buf.arrayOffset () + pos + 2, n, UTF_8);
+                } else {
+                    byte [] b = new byte [n];
+                    buf.get (pos + 2, b);
+                    tup [j] = new String (b, UTF_8);
+                } // if
+                pos += 2 + n;
+            } // if
+        } // for
+        return tup;
+    } // decode
+
+    /***************************************************************************
+     * Pack String s at byte offset pos of buf, as a length followed by its bytes
+     * or, if it is too long and overflow storage is given, as an overflow stub.
+     * @param s      the String to pack
+     * @param buf    the buffer to pack it into
+     * @param pos    the offset within buf
+     * @param spill  the overflow storage (null => inline)
+     * @return  the offset just past the packed String
+     */
+    private static int encodeString (String s, ByteBuffer buf, int pos, Overflow spill)
+    {
+        int n = s.length ();
+        if (isAscii (s) && (spill == null || n <= INLINE_MAX) && n < OVERFLOW) {       // fast path
+            Conversions.short2ByteBuffer ((short) n, buf, pos);
+            for (int i = 0; i < n; i++) buf.put (pos + 2 + i, (byte) s.charAt (i));
+            return pos + 2 + n;
+        } // if
+
+        byte [] b = s.getBytes (UTF_8);
+        if (spill != null && b.length > INLINE_MAX) {
+            Conversions.short2ByteBuffer ((short) OVERFLOW, buf, pos);
+            Conversions.int2ByteBuffer (b.length, buf, pos + 2);
+            Conversions.int2ByteBuffer (spill.write (b), buf, pos + 6);
+            return pos + STUB_SIZE;
+        } // if
+        if (b.length >= OVERFLOW) throw new IllegalArgumentException ("TupleCodec: String too long to store inline");
+        Conversions.short2ByteBuffer ((short) b.length, buf, pos);
+        buf.put (pos + 2, b);
+        return pos + 2 + b.length;
+    } // encodeString
+
+    /***************************************************************************
+     * Return the number of bytes in the UTF-8 encoding of String s.
+     * @param s  the String
+     * @return  its encoded length
+     */
+    private static int utf8Length (String s)
+    {
+        return isAscii (s) ? s.length () : s.getBytes (UTF_8).length;
+    } // utf8Length
+
+    /***************************************************************************
+     * Determine whether String s consists only of ASCII characters.
+     * @param s  the String
+     * @return  whether each char is below 0x80
+     */
+    private static boolean isAscii (String s)
+    {
+        for (int i = 0; i < s.length (); i++) if (s.charAt (i) >= 0x80) return false;
+        return true;
+    } // isAscii
+
+    /***************************************************************************
+     * Choose the encoder/decoder for a fixed-size domain.
+     * @param d  the domain (data type) of the column
+     * @return  the column encoder/decoder
+     */
+    private static Column columnFor (Class d)
+    {
+        if (d == Integer.class)   return new IntColumn ();
+        if (d == Long.class)      return new LongColumn ();
+        if (d == Double.class)    return new DoubleColumn ();
+        if (d == Float.class)     return new FloatColumn ();
+        if (d == Short.class)     return new ShortColumn ();
+        if (d == Character.class) return new CharColumn ();
+        if (d == Byte.class)      return new ByteColumn ();
+        throw new IllegalArgumentException ("TupleCodec: cannot recognize domain " + d);
+    } // columnFor
+
+} // TupleCodec class
+